@@ -0,0 +1,64 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Find City In Trie Benchmark</h1>
+ * findCityInTrie() of the trie engine from the node of the first letter
+ * under the NodeHead of the last letter, which is the walk lookupCity()
+ * does once it found the NodeHead.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class FindCityInTrieBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int cities;
+
+    private GeographyGame gg;
+    private String[] names;
+    private int[] firstLetterNodes;
+    private int cursor;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        out = SyntheticCities.quiet();
+        gg = SyntheticCities.newGame(SyntheticCities.csvFile(cities), GeographyGame.ENGINE_TRIE, null);
+        names = SyntheticCities.uniqueNames(cities, SyntheticCities.SEED);
+        firstLetterNodes = new int[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+            String name = names[i];
+            int root = gg.getHeadNode(NameNormalizer.lastLetter(name)).root;
+            firstLetterNodes[i] = gg.letterNode(root, NameNormalizer.firstLetter(name));
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public boolean findCityInTrie()
+    {
+        if (++cursor == names.length)
+            cursor = 0;
+        return gg.findCityInTrie(firstLetterNodes[cursor], names[cursor], 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Full Game Benchmark</h1>
+ * A whole game between two players with the same engine, like
+ * playInternal() but with an opponent, from a different seeded start city
+ * every iteration until one of the players wins.  Graph players share one
+ * index, trie players are loaded separately before the iteration.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class FullGameBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int cities;
+
+    @Param({"graph", "trie"})
+    public String engine;
+
+    private String csvFile;
+    private CityIndex index;
+    private String[] names;
+    private GeographyGame[] players;
+    private String startCity;
+    private int iteration;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        out = SyntheticCities.quiet();
+        csvFile = SyntheticCities.csvFile(cities);
+        if (GeographyGame.ENGINE_GRAPH.equals(engine))
+            index = CityIndex.fromCsv(csvFile);
+        names = SyntheticCities.uniqueNames(cities, SyntheticCities.SEED);
+    }
+
+    @Setup(Level.Iteration)
+    public void newGame()
+    {
+        players = new GeographyGame[] {
+                SyntheticCities.newGame(csvFile, engine, index),
+                SyntheticCities.newGame(csvFile, engine, index)};
+        startCity = names[iteration++ % names.length];
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public int playGame()
+    {
+        players[0].removeCity(startCity);
+        String nextCity = startCity;
+        int moves = 1;
+        for (int turn = 1; ; turn = 1 - turn, moves++)
+        {
+            nextCity = players[turn].nextMove(nextCity);
+            if (nextCity.startsWith("Loser") || nextCity.startsWith("Winner"))
+                return moves;
+        }
+    }
+}
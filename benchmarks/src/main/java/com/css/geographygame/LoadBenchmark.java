@@ -0,0 +1,53 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Load Benchmark</h1>
+ * GeographyGame.loadData() from a synthetic cities file, CSV parsing and
+ * building the structures of the engine.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int cities;
+
+    @Param({"graph", "trie"})
+    public String engine;
+
+    private String csvFile;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        csvFile = SyntheticCities.csvFile(cities);
+        out = SyntheticCities.quiet();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public GeographyGame loadData()
+    {
+        return SyntheticCities.newGame(csvFile, engine, null);
+    }
+}
@@ -0,0 +1,60 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Lookup Benchmark</h1>
+ * lookupCity() of the engine for every city name in random order on a
+ * fully loaded game.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int cities;
+
+    @Param({"graph", "trie"})
+    public String engine;
+
+    private GeographyGame gg;
+    private String[] names;
+    private int cursor;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        out = SyntheticCities.quiet();
+        gg = SyntheticCities.newGame(SyntheticCities.csvFile(cities), engine, null);
+        names = SyntheticCities.uniqueNames(cities, SyntheticCities.SEED);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public int lookupCity()
+    {
+        if (++cursor == names.length)
+            cursor = 0;
+        if (GeographyGame.ENGINE_GRAPH.equals(engine))
+            return gg.session.lookupCity(names[cursor]);
+        return gg.lookupCity(names[cursor]);
+    }
+}
@@ -0,0 +1,85 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Next Move Benchmark</h1>
+ * nextMove() of the engine for a batch of 100 opponent cities in the early
+ * (all cities left), mid (half of the names played) and late (90% of the
+ * names played) game.  Every iteration starts from a fresh game advanced to
+ * the phase, so the time is reported per batch.  An opponent city that was
+ * already played by an earlier move of the batch is skipped with a lookup,
+ * which is included in the time.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = NextMoveBenchmark.BATCH_SIZE)
+@Measurement(iterations = 10, batchSize = NextMoveBenchmark.BATCH_SIZE)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class NextMoveBenchmark {
+
+    public static final int BATCH_SIZE = 100;
+
+    @Param({"10000", "100000", "1000000"})
+    public int cities;
+
+    @Param({"graph", "trie"})
+    public String engine;
+
+    @Param({"early", "mid", "late"})
+    public String phase;
+
+    private String csvFile;
+    private CityIndex index;
+    private String[] names;
+    private int played;
+    private GeographyGame gg;
+    private int cursor;
+    private int iteration;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        out = SyntheticCities.quiet();
+        csvFile = SyntheticCities.csvFile(cities);
+        if (GeographyGame.ENGINE_GRAPH.equals(engine))
+            index = CityIndex.fromCsv(csvFile);
+        names = SyntheticCities.uniqueNames(cities, SyntheticCities.SEED);
+        played = "early".equals(phase) ? 0 : "mid".equals(phase) ? names.length / 2 : names.length * 9 / 10;
+    }
+
+    @Setup(Level.Iteration)
+    public void newGame()
+    {
+        gg = SyntheticCities.newGame(csvFile, engine, index);
+        for (int i = 0; i < played; i++)
+            gg.removeCity(names[i]);
+        //every iteration plays a different batch of opponent cities
+        int left = names.length - played;
+        cursor = played + (iteration++ * BATCH_SIZE * 3) % Math.max(1, left - BATCH_SIZE * 3);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public String nextMove()
+    {
+        while (cursor < names.length - 1 && !SyntheticCities.isAvailable(gg, names[cursor]))
+            cursor++;
+        return gg.nextMove(names[cursor++]);
+    }
+}
@@ -0,0 +1,46 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Parse Line Benchmark</h1>
+ * GeographyGame.parseLine() over the lines of a synthetic cities file,
+ * about one in a hundred with a quoted name.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseLineBenchmark {
+
+    private String[] lines;
+    private int cursor;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        List<String> all = Files.readAllLines(Paths.get(SyntheticCities.csvFile(10000)), StandardCharsets.UTF_8);
+        lines = all.subList(1, all.size()).toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String[] parseLine()
+    {
+        if (++cursor == lines.length)
+            cursor = 0;
+        return GeographyGame.parseLine(lines[cursor]);
+    }
+}
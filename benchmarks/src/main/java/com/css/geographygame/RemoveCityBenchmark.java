@@ -0,0 +1,72 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <h1>Remove City Benchmark</h1>
+ * removeCity() of the engine for a batch of 1000 cities in random order.
+ * Every iteration starts from a freshly loaded game, so the time is reported
+ * per batch.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = RemoveCityBenchmark.BATCH_SIZE)
+@Measurement(iterations = 10, batchSize = RemoveCityBenchmark.BATCH_SIZE)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class RemoveCityBenchmark {
+
+    public static final int BATCH_SIZE = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int cities;
+
+    @Param({"graph", "trie"})
+    public String engine;
+
+    private String csvFile;
+    private CityIndex index;
+    private String[] names;
+    private GeographyGame gg;
+    private int cursor;
+    private int iteration;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        out = SyntheticCities.quiet();
+        csvFile = SyntheticCities.csvFile(cities);
+        if (GeographyGame.ENGINE_GRAPH.equals(engine))
+            index = CityIndex.fromCsv(csvFile);
+        names = SyntheticCities.uniqueNames(cities, SyntheticCities.SEED);
+    }
+
+    @Setup(Level.Iteration)
+    public void newGame()
+    {
+        gg = SyntheticCities.newGame(csvFile, engine, index);
+        //every iteration removes a different batch of cities
+        cursor = (iteration++ * BATCH_SIZE) % (names.length - BATCH_SIZE);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void removeCity()
+    {
+        gg.removeCity(names[cursor++]);
+    }
+}
@@ -0,0 +1,154 @@
+package com.css.geographygame;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <h1>Synthetic Cities</h1>
+ * Seeded generator of city files for the benchmarks.  Names are built from
+ * syllables so the first and last letters are spread unevenly like in the
+ * world cities file, a few names are repeated and about one in a hundred is
+ * quoted with a comma so both paths of the CSV parsers are exercised.  The
+ * same size always gives the same file, which is written once to the temp
+ * directory and reused.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class SyntheticCities {
+
+    public static final long SEED = 20190918L;
+
+    private static final String[] ONSETS = {"", "", "b", "br", "c", "ch", "d", "f", "g", "gr", "h", "j", "k", "kr", "l", "m",
+            "n", "p", "pr", "qu", "r", "s", "sh", "st", "t", "tr", "v", "w", "x", "y", "z", "á", "ö"};
+    private static final String[] VOWELS = {"a", "a", "e", "e", "i", "o", "o", "u", "ou", "ia", "y", "é"};
+    private static final String[] CODAS = {"", "", "", "n", "r", "s", "l", "m", "k", "x", "t", "ck", "ng", "’"};
+    private static final String[] PREFIXES = {"san ", "new ", "al ", "port ", "saint-", "bad "};
+
+    /**
+     * names() returns the city names of the file in file order, with
+     * duplicates, as they are stored by the loaders.
+     * @param nbrOfCities
+     * @return String[]
+     */
+    public static String[] names(int nbrOfCities)
+    {
+        Random random = new Random(SEED);
+        String[] names = new String[nbrOfCities];
+        for (int i = 0; i < nbrOfCities; i++)
+        {
+            //about 2% of the cities share a name with an earlier city
+            if (i > 0 && random.nextInt(50) == 0) {
+                names[i] = names[random.nextInt(i)];
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            if (random.nextInt(20) == 0)
+                sb.append(PREFIXES[random.nextInt(PREFIXES.length)]);
+            int syllables = 1 + random.nextInt(3) + random.nextInt(2);
+            for (int s = 0; s < syllables; s++)
+                sb.append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+            sb.append(CODAS[random.nextInt(CODAS.length)]);
+            if (random.nextInt(100) == 0)
+                sb.append(", ").append(ONSETS[random.nextInt(ONSETS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+            names[i] = sb.toString();
+        }
+        return names;
+    }
+
+    /**
+     * uniqueNames() returns every name once in a seeded random order.
+     * @param nbrOfCities
+     * @param seed
+     * @return String[]
+     */
+    public static String[] uniqueNames(int nbrOfCities, long seed)
+    {
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(Arrays.asList(names(nbrOfCities))));
+        Collections.shuffle(unique, new Random(seed));
+        return unique.toArray(new String[0]);
+    }
+
+    /**
+     * csvFile() returns the path of the cities file with nbrOfCities cities
+     * and writes it if it doesn't exist yet.
+     * @param nbrOfCities
+     * @return String
+     * @throws IOException
+     */
+    public static synchronized String csvFile(int nbrOfCities) throws IOException
+    {
+        File file = new File(System.getProperty("java.io.tmpdir"), "geography-synthetic-" + nbrOfCities + "-" + SEED + ".csv");
+        if (file.exists())
+            return file.getPath();
+        File tmp = new File(file.getPath() + ".tmp");
+        Random random = new Random(SEED + 1);
+        String[] names = names(nbrOfCities);
+        try (BufferedWriter out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            out.write("name,country,subcountry,geonameid\n");
+            for (int i = 0; i < names.length; i++)
+            {
+                String name = names[i].indexOf(',') >= 0 ? "\"" + names[i] + "\"" : names[i];
+                out.write(name + ",Country " + random.nextInt(200) + ",Region " + random.nextInt(4000) + "," + (i + 1) + "\n");
+            }
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("Unable to create " + file);
+        return file.getPath();
+    }
+
+    /**
+     * quiet() stops the DEBUG output of the game while a benchmark runs and
+     * returns the original System.out to restore in the tear down.
+     * @return PrintStream
+     */
+    public static PrintStream quiet()
+    {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b)
+            {
+            }
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+            }
+        }));
+        return out;
+    }
+
+    /**
+     * newGame() loads a player with the engine, graph players share the index.
+     */
+    public static GeographyGame newGame(String csvFile, String engine, CityIndex index)
+    {
+        GeographyGame gg = GeographyGame.ENGINE_GRAPH.equals(engine) && index != null ? new GeographyGame(index) : new GeographyGame();
+        gg.fileName = csvFile;
+        gg.engine = engine;
+        gg.loadData();
+        return gg;
+    }
+
+    /**
+     * isAvailable() checks with the engine of the player if the city can still be played.
+     */
+    public static boolean isAvailable(GeographyGame gg, String city)
+    {
+        if (GeographyGame.ENGINE_GRAPH.equals(gg.engine))
+            return gg.session.lookupCity(city) != -1;
+        return gg.lookupCity(city) != -1;
+    }
+}
@@ -0,0 +1,224 @@
+package com.css.geographygame;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <h1>City CSV Loader</h1>
+ * Streams the cities file (name,country,subcountry,geonameid) through a
+ * memory mapped FileChannel and parses the fields straight from the bytes.
+ * Only the lower case city name is turned into a String and the geonameid is
+ * parsed from the digits, the country fields are skipped without decoding.
+ * <p>
+ * Fields surrounded by double quotes may contain commas and "" for a quote.
+ * Names are decoded as UTF-8 so accented names are read correctly.  The
+ * parser is a byte at a time state machine, so a row can span the mapped
+ * windows and the small chunks copied out of them.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class CityCsvLoader {
+
+    public interface CityHandler
+    {
+        void onCity(String name, int geonameid);
+    }
+
+    private static final long WINDOW_SIZE = 1L << 30;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int NAME_FIELD = 0;
+    private static final int GEONAMEID_FIELD = 3;
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final CityHandler handler;
+    private final NameNormalizer normalizer;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private boolean header = true;
+    private int field;
+    private boolean inDoubleQuote;
+    private boolean quotePending;
+    private char[] nameBuf = new char[256];
+    private int nameLen;
+    private boolean nameAscii = true;
+    private int codePoint;
+    private int pendingBytes;
+    private int geonameid;
+    private long lineNbr = 1;
+    private int nbrOfCities;
+
+    private CityCsvLoader(NameNormalizer _normalizer, CityHandler _handler)
+    {
+        normalizer = _normalizer;
+        handler = _handler;
+    }
+
+    /**
+     * load() reads every row after the header and passes the lower case city
+     * name and geonameid to the handler, the names keep their diacritics.
+     * @param fileName
+     * @param handler
+     * @return int number of cities passed to the handler
+     * @throws IOException
+     */
+    public static int load(String fileName, CityHandler handler) throws IOException
+    {
+        return load(fileName, new NameNormalizer(), handler);
+    }
+
+    /**
+     * load() reads every row after the header and passes the city name
+     * normalized by the normalizer and geonameid to the handler.  Rows
+     * without a name are skipped.
+     * @param fileName
+     * @param normalizer
+     * @param handler
+     * @return int number of cities passed to the handler
+     * @throws IOException
+     */
+    public static int load(String fileName, NameNormalizer normalizer, CityHandler handler) throws IOException
+    {
+        CityCsvLoader loader = new CityCsvLoader(normalizer, handler);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += WINDOW_SIZE)
+            {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, WINDOW_SIZE));
+                while (buf.hasRemaining())
+                {
+                    int length = Math.min(CHUNK_SIZE, buf.remaining());
+                    buf.get(loader.chunk, 0, length);
+                    loader.parse(length);
+                }
+            }
+        }
+        //last line without a line feed
+        loader.endLine();
+        return loader.nbrOfCities;
+    }
+
+    private void parse(int length)
+    {
+        byte[] bytes = chunk;
+        for (int i = 0; i < length; i++)
+        {
+            byte b = bytes[i];
+            if (header) {
+                if (b == '\n') {
+                    header = false;
+                    lineNbr++;
+                }
+                continue;
+            }
+            if (quotePending) {
+                //a quote inside quotes is either an escaped quote or the closing quote
+                quotePending = false;
+                if (b == '"') {
+                    appendField(b);
+                    continue;
+                }
+                inDoubleQuote = false;
+            }
+            if (field != NAME_FIELD && field != GEONAMEID_FIELD) {
+                //skip the country fields without looking at every branch below
+                while (b != ',' && b != '"' && b != '\n' && ++i < length)
+                    b = bytes[i];
+                if (i == length)
+                    break;
+            }
+            if (inDoubleQuote) {
+                if (b == '"')
+                    quotePending = true;
+                else if (b == '\n')
+                    lineNbr++;
+                else
+                    appendField(b);
+            }
+            else if (b == '"')
+                inDoubleQuote = true;
+            else if (b == ',')
+                field++;
+            else if (b == '\n')
+                endLine();
+            else if (b != '\r')
+                appendField(b);
+        }
+    }
+
+    private void appendField(byte b)
+    {
+        if (field == GEONAMEID_FIELD) {
+            if (b < '0' || b > '9')
+                throw new NumberFormatException("CityCsvLoader.parse()::Invalid geonameid on line " + lineNbr);
+            geonameid = geonameid * 10 + (b - '0');
+            return;
+        }
+        if (field != NAME_FIELD)
+            return;
+
+        if (nameLen + 2 > nameBuf.length) {
+            char[] grow = new char[nameBuf.length * 2];
+            System.arraycopy(nameBuf, 0, grow, 0, nameLen);
+            nameBuf = grow;
+        }
+        int ub = b & 0xff;
+        if (pendingBytes > 0 && (ub & 0xc0) == 0x80) {
+            //UTF-8 continuation byte
+            codePoint = (codePoint << 6) | (ub & 0x3f);
+            if (--pendingBytes == 0)
+                nameLen += Character.toChars(Character.isValidCodePoint(codePoint) ? codePoint : REPLACEMENT, nameBuf, nameLen);
+            return;
+        }
+        if (pendingBytes > 0) {
+            //truncated sequence
+            pendingBytes = 0;
+            nameBuf[nameLen++] = REPLACEMENT;
+        }
+        if (ub < 0x80) {
+            if (ub >= 'A' && ub <= 'Z')
+                ub += 'a' - 'A';
+            nameBuf[nameLen++] = (char) ub;
+            return;
+        }
+
+        nameAscii = false;
+        if ((ub & 0xe0) == 0xc0) {
+            pendingBytes = 1;
+            codePoint = ub & 0x1f;
+        } else if ((ub & 0xf0) == 0xe0) {
+            pendingBytes = 2;
+            codePoint = ub & 0x0f;
+        } else if ((ub & 0xf8) == 0xf0) {
+            pendingBytes = 3;
+            codePoint = ub & 0x07;
+        } else
+            nameBuf[nameLen++] = REPLACEMENT;
+    }
+
+    private void endLine()
+    {
+        if (nameLen > 0 && !header) {
+            String name;
+            if (nameAscii)
+                name = new String(nameBuf, 0, nameLen);
+            else
+                //remove case sensitivity which can cause creation of more objects than necessary
+                name = normalizer.normalize(new String(nameBuf, 0, nameLen));
+            nbrOfCities++;
+            handler.onCity(name, geonameid);
+        }
+        lineNbr++;
+        field = 0;
+        inDoubleQuote = false;
+        quotePending = false;
+        nameLen = 0;
+        nameAscii = true;
+        pendingBytes = 0;
+        geonameid = 0;
+    }
+}
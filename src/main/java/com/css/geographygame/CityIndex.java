@@ -0,0 +1,370 @@
+package com.css.geographygame;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>City Index</h1>
+ * Immutable letter graph of the loaded cities.  Every city is an edge from
+ * its first letter to its last letter, so the state of a game can be kept as
+ * a dense first-letter/last-letter count matrix instead of tries that have to
+ * be re-sorted after every move.
+ * <p>
+ * Letters are code points of the names normalized by {@link NameNormalizer}
+ * and are mapped to a dense alphabet index at load time and the city
+ * names are grouped by (first, last) letter pair in one flat array.  The
+ * index is never modified once it is built, so one instance can be shared by
+ * any number of {@link GameSession}s on any number of threads.  A session
+ * copies the few arrays it modifies when it starts.  The per name arrays
+ * are int buffers, so an index read from a {@link CityIndexSnapshot} uses
+ * them in place in the mapped file.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class CityIndex {
+
+    public static class Builder
+    {
+        private final NameNormalizer normalizer;
+        private HashMap<String, Integer> nameIds = new HashMap<>();
+        private ArrayList<String> nameList = new ArrayList<>();
+        private int[] nameMultiplicity = new int[1024];
+        //letter symbol -> dense letter index and dense letter index -> code point
+        private int[] letterIndex = new int[0];
+        private int[] letters = new int[16];
+        private int nbrOfLetters;
+
+        public Builder()
+        {
+            this(new NameNormalizer());
+        }
+
+        /**
+         * Creates a builder of the names normalized by the normalizer, the
+         * index keeps it for the letters and the moves of the games.
+         * @param _normalizer
+         */
+        public Builder(NameNormalizer _normalizer)
+        {
+            normalizer = _normalizer;
+        }
+
+        public void addCity(String name)
+        {
+            if (name == null || name.isEmpty())
+                return;
+            Integer id = nameIds.get(name);
+            if (id == null) {
+                id = nameList.size();
+                nameIds.put(name, id);
+                nameList.add(name);
+                if (id == nameMultiplicity.length)
+                    nameMultiplicity = Arrays.copyOf(nameMultiplicity, id * 2);
+            }
+            nameMultiplicity[id]++;
+        }
+
+        public CityIndex build()
+        {
+            int nbrOfNames = nameList.size();
+            String[] nameArr = nameList.toArray(new String[nbrOfNames]);
+
+            //assign a dense index to every first and last letter
+            int[] nameFirst = new int[nbrOfNames];
+            int[] nameLast = new int[nbrOfNames];
+            for (int id = 0; id < nbrOfNames; id++) {
+                nameFirst[id] = indexLetter(NameNormalizer.firstLetter(nameArr[id]));
+                nameLast[id] = indexLetter(NameNormalizer.lastLetter(nameArr[id]));
+            }
+
+            //group names by letter pair
+            int nbrOfPairs = nbrOfLetters * nbrOfLetters;
+            int[] pairOffset = new int[nbrOfPairs + 1];
+            for (int id = 0; id < nbrOfNames; id++)
+                pairOffset[nameFirst[id] * nbrOfLetters + nameLast[id] + 1]++;
+            for (int pair = 0; pair < nbrOfPairs; pair++)
+                pairOffset[pair + 1] += pairOffset[pair];
+            int[] pairIds = new int[nbrOfNames];
+            int[] fill = new int[nbrOfPairs];
+            int[] pairCount = new int[nbrOfPairs];
+            int[] firstCount = new int[nbrOfLetters];
+            for (int id = 0; id < nbrOfNames; id++) {
+                int pair = nameFirst[id] * nbrOfLetters + nameLast[id];
+                pairIds[pairOffset[pair] + fill[pair]++] = id;
+                pairCount[pair] += nameMultiplicity[id];
+                firstCount[nameFirst[id]] += nameMultiplicity[id];
+            }
+            return new CityIndex(normalizer, NameTable.build(nameArr), Arrays.copyOf(letters, nbrOfLetters), IntBuffer.wrap(nameFirst),
+                    IntBuffer.wrap(nameLast), IntBuffer.wrap(Arrays.copyOf(nameMultiplicity, nbrOfNames)),
+                    IntBuffer.wrap(pairOffset), IntBuffer.wrap(pairIds), pairCount, firstCount);
+        }
+
+        private int indexLetter(int letter)
+        {
+            int symbol = normalizer.intern(letter);
+            if (symbol >= letterIndex.length) {
+                int size = letterIndex.length;
+                letterIndex = Arrays.copyOf(letterIndex, Math.max(symbol + 1, size * 2));
+                Arrays.fill(letterIndex, size, letterIndex.length, -1);
+            }
+            if (letterIndex[symbol] == -1) {
+                if (nbrOfLetters == letters.length)
+                    letters = Arrays.copyOf(letters, nbrOfLetters * 2);
+                letterIndex[symbol] = nbrOfLetters;
+                letters[nbrOfLetters++] = letter;
+            }
+            return letterIndex[symbol];
+        }
+    }
+
+    final NameNormalizer normalizer;
+
+    //alphabet
+    final int[] letterIndex;        //letter symbol -> dense letter index, -1 if unused
+    final int[] letters;            //dense letter index -> code point
+    final int nbrOfLetters;
+
+    //city names
+    final NameTable names;
+    private final IntBuffer nameFirst;
+    private final IntBuffer nameLast;
+    private final IntBuffer multiplicity;       //number of cities with this name (duplicates)
+
+    //names grouped by pair = first * nbrOfLetters + last
+    private final IntBuffer pairOffset;
+    private final IntBuffer pairIds;
+    final int[] pairCount;          //number of cities for the pair
+    final int[] firstCount;         //number of cities by first letter
+    final int nbrOfCities;
+    //computed on first use, racing threads compute the same value
+    private long nameChecksum = -1;
+
+    private CityIndex(NameNormalizer _normalizer, NameTable _names, int[] _letters, IntBuffer _nameFirst, IntBuffer _nameLast, IntBuffer _multiplicity,
+                      IntBuffer _pairOffset, IntBuffer _pairIds, int[] _pairCount, int[] _firstCount)
+    {
+        normalizer = _normalizer;
+        names = _names;
+        letters = _letters;
+        nbrOfLetters = _letters.length;
+        int[] symbols = new int[nbrOfLetters];
+        int maxSymbol = -1;
+        for (int l = 0; l < nbrOfLetters; l++) {
+            symbols[l] = normalizer.intern(letters[l]);
+            maxSymbol = Math.max(maxSymbol, symbols[l]);
+        }
+        letterIndex = new int[maxSymbol + 1];
+        Arrays.fill(letterIndex, -1);
+        for (int l = 0; l < nbrOfLetters; l++)
+            letterIndex[symbols[l]] = l;
+        nameFirst = _nameFirst;
+        nameLast = _nameLast;
+        multiplicity = _multiplicity;
+        pairOffset = _pairOffset;
+        pairIds = _pairIds;
+        pairCount = _pairCount;
+        firstCount = _firstCount;
+        int cities = 0;
+        for (int count : firstCount)
+            cities += count;
+        nbrOfCities = cities;
+    }
+
+    /**
+     * fromCsv() loads the cities file into a new index, the names keep
+     * their diacritics.
+     * @param fileName
+     * @return CityIndex
+     * @throws IOException
+     */
+    public static CityIndex fromCsv(String fileName) throws IOException
+    {
+        return fromCsv(fileName, new NameNormalizer());
+    }
+
+    /**
+     * fromCsv() loads the cities file into a new index of the names
+     * normalized by the normalizer.
+     * @param fileName
+     * @param normalizer
+     * @return CityIndex
+     * @throws IOException
+     */
+    public static CityIndex fromCsv(String fileName, NameNormalizer normalizer) throws IOException
+    {
+        Builder builder = new Builder(normalizer);
+        CityCsvLoader.load(fileName, normalizer, (name, geonameid) -> builder.addCity(name));
+        return builder.build();
+    }
+
+    public GameSession newSession()
+    {
+        return new GameSession(this);
+    }
+
+    public NameNormalizer getNormalizer()
+    {
+        return normalizer;
+    }
+
+    public NameTable getNames()
+    {
+        return names;
+    }
+
+    public int getNbrOfCities()
+    {
+        return nbrOfCities;
+    }
+
+    public int getNbrOfLetters()
+    {
+        return nbrOfLetters;
+    }
+
+    public int getNbrOfNames()
+    {
+        return multiplicity.limit();
+    }
+
+    /**
+     * Returns the dense index of the first letter of the name.
+     */
+    public int nameFirst(int id)
+    {
+        return nameFirst.get(id);
+    }
+
+    /**
+     * Returns the dense index of the last letter of the name.
+     */
+    public int nameLast(int id)
+    {
+        return nameLast.get(id);
+    }
+
+    /**
+     * Returns the number of cities with the name.
+     */
+    public int multiplicity(int id)
+    {
+        return multiplicity.get(id);
+    }
+
+    /**
+     * Returns the position of the first name of the letter pair in the
+     * names grouped by pair, pairOffset(pair + 1) is the end of the pair.
+     */
+    public int pairOffset(int pair)
+    {
+        return pairOffset.get(pair);
+    }
+
+    public int pairId(int position)
+    {
+        return pairIds.get(position);
+    }
+
+    /**
+     * Returns a copy of the number of cities per name for a game to count down.
+     */
+    public int[] copyMultiplicity()
+    {
+        return copy(multiplicity);
+    }
+
+    /**
+     * Returns a copy of the names grouped by pair for a game to reorder.
+     */
+    public int[] copyPairIds()
+    {
+        return copy(pairIds);
+    }
+
+    private static int[] copy(IntBuffer values)
+    {
+        int[] copy = new int[values.limit()];
+        values.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * getNameChecksum() returns the CRC32 of the names in id order, so files
+     * that store name ids can check they are read with the same index.
+     * @return long
+     */
+    public long getNameChecksum()
+    {
+        if (nameChecksum == -1) {
+            CRC32 crc = new CRC32();
+            for (int id = 0; id < names.size(); id++) {
+                byte[] bytes = names.name(id).getBytes(StandardCharsets.UTF_8);
+                crc.update(bytes, 0, bytes.length);
+                crc.update('\n');
+            }
+            nameChecksum = crc.getValue();
+        }
+        return nameChecksum;
+    }
+
+    /**
+     * Returns the dense index of the letter or -1 if no city starts or ends with it.
+     * @param letter code point
+     */
+    public int letterIndex(int letter)
+    {
+        int symbol = normalizer.symbol(letter);
+        return symbol >= 0 && symbol < letterIndex.length ? letterIndex[symbol] : -1;
+    }
+
+    /**
+     * Snapshot layout: letters, the number of cities per letter pair and per
+     * first letter, then per name its first letter, last letter and number of
+     * cities, then the names grouped by letter pair.  The name table itself
+     * is written by the snapshot.
+     */
+    public void writeSnapshot(DataOutputStream out) throws IOException
+    {
+        out.writeInt(nbrOfLetters);
+        for (int letter : letters)
+            out.writeInt(letter);
+        CityIndexSnapshot.writeInts(out, pairCount);
+        CityIndexSnapshot.writeInts(out, firstCount);
+        out.writeInt(names.size());
+        CityIndexSnapshot.writeInts(out, copy(nameFirst));
+        CityIndexSnapshot.writeInts(out, copy(nameLast));
+        CityIndexSnapshot.writeInts(out, copy(multiplicity));
+        CityIndexSnapshot.writeInts(out, copy(pairOffset));
+        CityIndexSnapshot.writeInts(out, copy(pairIds));
+    }
+
+    /**
+     * readSnapshot() copies the letter counts out of the snapshot and
+     * leaves the per name arrays and the names in the mapping, they are
+     * only paged in as the game reads them.  The normalizer has to have the
+     * setting the snapshot was compiled with.
+     */
+    public static CityIndex readSnapshot(ByteBuffer buf, NameTable names, NameNormalizer normalizer)
+    {
+        int nbrOfLetters = buf.getInt();
+        int[] letters = CityIndexSnapshot.readInts(buf, nbrOfLetters);
+        int[] pairCount = CityIndexSnapshot.readInts(buf, nbrOfLetters * nbrOfLetters);
+        int[] firstCount = CityIndexSnapshot.readInts(buf, nbrOfLetters);
+        int nbrOfNames = buf.getInt();
+        IntBuffer nameFirst = CityIndexSnapshot.sliceInts(buf, nbrOfNames);
+        IntBuffer nameLast = CityIndexSnapshot.sliceInts(buf, nbrOfNames);
+        IntBuffer multiplicity = CityIndexSnapshot.sliceInts(buf, nbrOfNames);
+        IntBuffer pairOffset = CityIndexSnapshot.sliceInts(buf, nbrOfLetters * nbrOfLetters + 1);
+        IntBuffer pairIds = CityIndexSnapshot.sliceInts(buf, nbrOfNames);
+        return new CityIndex(normalizer, names, letters, nameFirst, nameLast, multiplicity, pairOffset, pairIds, pairCount, firstCount);
+    }
+}
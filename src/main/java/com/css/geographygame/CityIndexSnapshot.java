@@ -0,0 +1,234 @@
+package com.css.geographygame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>City Index Snapshot</h1>
+ * Compiles the fully built city index into a binary file so a player can
+ * memory map it at startup instead of parsing the CSV and rebuilding the
+ * index.  The snapshot holds the name table, the {@link CityIndex} arrays
+ * and the Trie structures with the geonameid of every city.
+ * <p>
+ * File layout (big endian):
+ * magic, version, payload length, CRC32 of the payload, offset of the
+ * graph section, offset of the trie section, 1 if the names were stripped
+ * of diacritics else 0, then the payload which starts with the name table.
+ * A snapshot compiled with the other {@link NameNormalizer} setting is not
+ * loaded since its names and letters differ.  A player only reads the section of the engine it
+ * plays with and the city names are decoded on demand from the mapping.
+ * </p>
+ * <p>
+ * load() only checks the header and the length, reading the whole payload
+ * for its checksum would page in the file at every start.  The checksum is
+ * checked by verify(), run it after copying a snapshot around.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.CityIndexSnapshot world-cities.csv world-cities.idx [stripDiacritics]
+ * <br>
+ * or: java com.css.geographygame.CityIndexSnapshot -verify world-cities.idx
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class CityIndexSnapshot {
+
+    public static final int MAGIC = 0x47454F49; //GEOI
+    public static final int VERSION = 3;
+    private static final int HEADER_SIZE = 32;
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 2) {
+                System.out.println("CityIndexSnapshot.main() expects the cities CSV file and the index file to write.");
+                return;
+            }
+            if ("-verify".equals(args[0])) {
+                System.out.println("CityIndexSnapshot.main()::" + args[1] + (verify(args[1]) ? " is valid" : " is not valid"));
+                return;
+            }
+            NameNormalizer normalizer = new NameNormalizer(args.length > 2 && Boolean.parseBoolean(args[2]));
+            long start = System.currentTimeMillis();
+            GeographyGame gg = new GeographyGame();
+            gg.setNormalizer(normalizer);
+            CityIndex.Builder builder = new CityIndex.Builder(normalizer);
+            int nbrOfCities = CityCsvLoader.load(args[0], normalizer, (name, geonameid) -> {
+                builder.addCity(name);
+                gg.addCity(new GeographyGame.CityNode(name, geonameid));
+            });
+            gg.sortLists();
+            write(args[1], builder.build(), gg);
+            System.out.println("CityIndexSnapshot.main()::Compiled " + nbrOfCities + " cities into " + args[1]
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public static void write(String indexFile, CityIndex cityIndex, GeographyGame gg) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        NameTable names = cityIndex.getNames();
+        names.writeSnapshot(out);
+        int graphOffset = out.size();
+        cityIndex.writeSnapshot(out);
+        int trieOffset = out.size();
+        gg.writeTrieSnapshot(out, names);
+        out.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(payload.length);
+        header.putLong(crc.getValue());
+        header.putInt(graphOffset);
+        header.putInt(trieOffset);
+        header.putInt(cityIndex.getNormalizer().isStripDiacritics() ? 1 : 0);
+        ((Buffer) header).flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(header);
+            channel.write(ByteBuffer.wrap(payload));
+        }
+    }
+
+    /**
+     * load() maps the index file and sets up the engine selected for the
+     * player.  Returns false if the file doesn't exist or is not a valid
+     * snapshot of this version so the caller can fall back to the CSV file.
+     * @param indexFile
+     * @param gg
+     * @return boolean
+     */
+    public static boolean load(String indexFile, GeographyGame gg)
+    {
+        if (indexFile == null || indexFile.isEmpty() || !new File(indexFile).exists())
+            return false;
+        try (FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < HEADER_SIZE || buf.getInt() != MAGIC) {
+                GameLog.warn("CityIndexSnapshot.load()::" + indexFile + " is not a city index snapshot.");
+                return false;
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                GameLog.warn("CityIndexSnapshot.load()::" + indexFile + " is version " + version + ", expected " + VERSION);
+                return false;
+            }
+            int payloadLength = buf.getInt();
+            buf.getLong(); //checksum, see verify()
+            int graphOffset = buf.getInt();
+            int trieOffset = buf.getInt();
+            boolean stripDiacritics = buf.getInt() == 1;
+            if (stripDiacritics != gg.normalizer.isStripDiacritics()) {
+                GameLog.warn("CityIndexSnapshot.load()::" + indexFile + " was compiled with names.strip.diacritics="
+                        + stripDiacritics);
+                return false;
+            }
+            if (buf.remaining() != payloadLength) {
+                GameLog.warn("CityIndexSnapshot.load()::" + indexFile + " is truncated.");
+                return false;
+            }
+            ByteBuffer payload = slice(buf, payloadLength);
+            NameTable names = NameTable.readSnapshot(payload.duplicate());
+            if (GeographyGame.ENGINE_GRAPH.equals(gg.engine))
+                gg.cityIndex = CityIndex.readSnapshot(position(payload, graphOffset), names, gg.normalizer);
+            else
+                gg.readTrieSnapshot(position(payload, trieOffset), names);
+            return true;
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * verify() reads the whole index file and checks the payload against
+     * the CRC32 in the header.
+     * @param indexFile
+     * @return boolean false if the file is not a snapshot of this version or the checksum doesn't match
+     */
+    public static boolean verify(String indexFile)
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.limit() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                return false;
+            int payloadLength = buf.getInt();
+            long checksum = buf.getLong();
+            ((Buffer) buf).position(HEADER_SIZE);
+            if (buf.remaining() != payloadLength)
+                return false;
+            CRC32 crc = new CRC32();
+            crc.update(buf);
+            if (crc.getValue() != checksum) {
+                GameLog.warn("CityIndexSnapshot.verify()::Checksum mismatch for " + indexFile);
+                return false;
+            }
+            return true;
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public static void writeInts(DataOutputStream out, int[] values) throws IOException
+    {
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    public static int[] readInts(ByteBuffer buf, int length)
+    {
+        int[] values = new int[length];
+        sliceInts(buf, length).get(values);
+        return values;
+    }
+
+    /**
+     * Returns a view of the next length ints and moves the buffer past them.
+     */
+    public static IntBuffer sliceInts(ByteBuffer buf, int length)
+    {
+        return slice(buf, length * 4).asIntBuffer();
+    }
+
+    /**
+     * Returns a view of the next length bytes and moves the buffer past them.
+     */
+    public static ByteBuffer slice(ByteBuffer buf, int length)
+    {
+        ByteBuffer view = buf.slice();
+        ((Buffer) view).limit(length);
+        ((Buffer) buf).position(buf.position() + length);
+        return view;
+    }
+
+    private static ByteBuffer position(ByteBuffer payload, int offset)
+    {
+        ByteBuffer view = payload.duplicate();
+        ((Buffer) view).position(offset);
+        return view;
+    }
+}
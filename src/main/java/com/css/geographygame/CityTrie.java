@@ -0,0 +1,357 @@
+package com.css.geographygame;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * <h1>City Trie</h1>
+ * Compact trie of city names stored in parallel int arrays instead of one
+ * object, HashMap and LinkedList per node.  A node is an int index, its
+ * children are kept as a first-child/next-sibling chain keyed by char and
+ * the cities that end on a node are kept as a chain of city ids, so the
+ * trie can be walked with char offsets into the name without creating any
+ * substrings.  The chain of a node holds the duplicates of one name in load
+ * order and is linked both ways, the previous city of the head being the
+ * tail, and every city keeps the node it ends on, so a city is appended, or
+ * a given one removed, in O(1).
+ * <p>
+ * Every node keeps the number of cities left in its subtree and a link to
+ * its parent, so adding or removing a city updates the counts on the way up
+ * in O(depth).  A branch whose count drops to 0 is not unlinked right away
+ * but the first time a lookup steps over it, and a walk never enters it, so
+ * any city left under a node is found in O(depth) without searching dead
+ * branches.
+ * </p>
+ * <p>
+ * The caller owns the city objects and stores them by city id.  The trie
+ * keeps the {@link NameNormalizer} of its names for the letter symbols of
+ * the caller.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class CityTrie {
+
+    public static final int NONE = -1;
+
+    private final NameNormalizer normalizer;
+    private char[] label = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] cityHead = new int[1024];
+    private int[] parent = new int[1024];
+    private int[] live = new int[1024];       //cities left in the subtree
+    private int nbrOfNodes;
+
+    private int[] cityNext = new int[1024];
+    private int[] cityPrev = newCityArray(1024);
+    //node the city ends on, NONE if it was never added or is removed
+    private int[] cityNode = newCityArray(1024);
+
+    /**
+     * Creates a trie of names that keep their diacritics.
+     */
+    public CityTrie()
+    {
+        this(new NameNormalizer());
+    }
+
+    public CityTrie(NameNormalizer _normalizer)
+    {
+        normalizer = _normalizer;
+    }
+
+    public NameNormalizer getNormalizer()
+    {
+        return normalizer;
+    }
+
+    public int newNode(char ch)
+    {
+        if (nbrOfNodes == label.length) {
+            int capacity = Math.max(16, nbrOfNodes * 2);
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            cityHead = Arrays.copyOf(cityHead, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            live = Arrays.copyOf(live, capacity);
+        }
+        label[nbrOfNodes] = ch;
+        firstChild[nbrOfNodes] = NONE;
+        nextSibling[nbrOfNodes] = NONE;
+        cityHead[nbrOfNodes] = NONE;
+        parent[nbrOfNodes] = NONE;
+        live[nbrOfNodes] = 0;
+        return nbrOfNodes++;
+    }
+
+    /**
+     * Returns the child of the node for the char, NONE if there is none or
+     * no cities are left under it.  Dead children passed on the way are
+     * unlinked.
+     */
+    public int child(int node, char ch)
+    {
+        int prev = NONE;
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child])
+        {
+            if (live[child] == 0) {
+                unlink(node, prev, child);
+                continue;
+            }
+            if (label[child] == ch)
+                return child;
+            prev = child;
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the first child of the node that has cities left under it and
+     * unlinks the dead children before it.
+     */
+    public int firstLiveChild(int node)
+    {
+        int child = firstChild[node];
+        while (child != NONE && live[child] == 0) {
+            unlink(node, NONE, child);
+            child = firstChild[node];
+        }
+        return child;
+    }
+
+    private void unlink(int node, int prev, int child)
+    {
+        if (prev == NONE)
+            firstChild[node] = nextSibling[child];
+        else
+            nextSibling[prev] = nextSibling[child];
+    }
+
+    public int addChild(int node, char ch)
+    {
+        int child = child(node, ch);
+        if (child == NONE) {
+            child = newNode(ch);
+            parent[child] = node;
+            nextSibling[child] = firstChild[node];
+            firstChild[node] = child;
+        }
+        return child;
+    }
+
+    public int firstChild(int node)
+    {
+        return firstChild[node];
+    }
+
+    /**
+     * Returns the number of cities left under the node, its own included.
+     */
+    public int liveCities(int node)
+    {
+        return live[node];
+    }
+
+    public int nextSibling(int node)
+    {
+        return nextSibling[node];
+    }
+
+    public char label(int node)
+    {
+        return label[node];
+    }
+
+    /**
+     * Returns true if any child of the node has cities left under it.
+     */
+    public boolean hasChildren(int node)
+    {
+        return firstLiveChild(node) != NONE;
+    }
+
+    /**
+     * Walks down from node following name[offset..] and returns the last node
+     * or NONE if the path doesn't exist.
+     */
+    public int walk(int node, String name, int offset)
+    {
+        for (int i = offset; i < name.length() && node != NONE; i++)
+            node = child(node, name.charAt(i));
+        return node;
+    }
+
+    public void addCity(int node, int cityId)
+    {
+        if (cityId >= cityNext.length) {
+            int size = cityNext.length;
+            cityNext = Arrays.copyOf(cityNext, Math.max(cityId + 1, size * 2));
+            cityPrev = Arrays.copyOf(cityPrev, cityNext.length);
+            cityNode = Arrays.copyOf(cityNode, cityNext.length);
+            Arrays.fill(cityPrev, size, cityNext.length, NONE);
+            Arrays.fill(cityNode, size, cityNext.length, NONE);
+        }
+        if (cityNode[cityId] != NONE)
+            throw new IllegalArgumentException("CityTrie.addCity()::City " + cityId + " was added already");
+        //append so the first city loaded is the first one removed
+        cityNext[cityId] = NONE;
+        cityNode[cityId] = node;
+        for (int n = node; n != NONE; n = parent[n])
+            live[n]++;
+        int head = cityHead[node];
+        if (head == NONE) {
+            cityHead[node] = cityId;
+            cityPrev[cityId] = cityId;
+            return;
+        }
+        int tail = cityPrev[head];
+        cityNext[tail] = cityId;
+        cityPrev[cityId] = tail;
+        cityPrev[head] = cityId;
+    }
+
+    public boolean isCity(int node)
+    {
+        return cityHead[node] != NONE;
+    }
+
+    public int firstCity(int node)
+    {
+        return cityHead[node];
+    }
+
+    public int nextCity(int cityId)
+    {
+        return cityNext[cityId];
+    }
+
+    public int removeFirstCity(int node)
+    {
+        int cityId = cityHead[node];
+        if (cityId != NONE)
+            removeCity(cityId);
+        return cityId;
+    }
+
+    /**
+     * removeCity() unlinks the city from the chain of the node it ends on,
+     * the other cities of the same name stay.
+     * @param cityId
+     * @return boolean false if the city was never added or is removed already
+     */
+    public boolean removeCity(int cityId)
+    {
+        if (!hasCity(cityId))
+            return false;
+        int node = cityNode[cityId];
+        int head = cityHead[node];
+        int prev = cityPrev[cityId];
+        int next = cityNext[cityId];
+        if (cityId == head) {
+            cityHead[node] = next;
+            if (next != NONE)
+                cityPrev[next] = prev;
+        }
+        else {
+            cityNext[prev] = next;
+            if (next != NONE)
+                cityPrev[next] = prev;
+            else
+                cityPrev[head] = prev;
+        }
+        cityNext[cityId] = NONE;
+        cityPrev[cityId] = NONE;
+        cityNode[cityId] = NONE;
+        for (int n = node; n != NONE; n = parent[n])
+            live[n]--;
+        return true;
+    }
+
+    /**
+     * Returns true if the city was added and not removed yet.
+     */
+    public boolean hasCity(int cityId)
+    {
+        return cityId >= 0 && cityId < cityNode.length && cityNode[cityId] != NONE;
+    }
+
+    private static int[] newCityArray(int size)
+    {
+        int[] cities = new int[size];
+        Arrays.fill(cities, NONE);
+        return cities;
+    }
+
+    public int getNbrOfNodes()
+    {
+        return nbrOfNodes;
+    }
+
+    /**
+     * Snapshot layout: number of nodes, label, firstChild, nextSibling and
+     * cityHead per node, then number of city ids and cityNext per city id.
+     */
+    public void writeSnapshot(DataOutputStream out, int nbrOfCityIds) throws IOException
+    {
+        out.writeInt(nbrOfNodes);
+        for (int node = 0; node < nbrOfNodes; node++)
+            out.writeInt(label[node]);
+        CityIndexSnapshot.writeInts(out, Arrays.copyOf(firstChild, nbrOfNodes));
+        CityIndexSnapshot.writeInts(out, Arrays.copyOf(nextSibling, nbrOfNodes));
+        CityIndexSnapshot.writeInts(out, Arrays.copyOf(cityHead, nbrOfNodes));
+        out.writeInt(nbrOfCityIds);
+        CityIndexSnapshot.writeInts(out, Arrays.copyOf(cityNext, nbrOfCityIds));
+    }
+
+    /**
+     * readSnapshot() copies the arrays out of the snapshot since a game
+     * unlinks nodes and removes cities from them.  The normalizer has to
+     * have the setting the snapshot was compiled with.
+     */
+    public static CityTrie readSnapshot(ByteBuffer buf, NameNormalizer normalizer)
+    {
+        CityTrie trie = new CityTrie(normalizer);
+        trie.nbrOfNodes = buf.getInt();
+        IntBuffer labels = CityIndexSnapshot.sliceInts(buf, trie.nbrOfNodes);
+        trie.label = new char[trie.nbrOfNodes];
+        for (int node = 0; node < trie.nbrOfNodes; node++)
+            trie.label[node] = (char) labels.get(node);
+        trie.firstChild = CityIndexSnapshot.readInts(buf, trie.nbrOfNodes);
+        trie.nextSibling = CityIndexSnapshot.readInts(buf, trie.nbrOfNodes);
+        trie.cityHead = CityIndexSnapshot.readInts(buf, trie.nbrOfNodes);
+        trie.cityNext = CityIndexSnapshot.readInts(buf, buf.getInt());
+
+        //parents, back links and live counts are rebuilt instead of stored, a child is always created after its parent
+        trie.parent = new int[trie.nbrOfNodes];
+        trie.live = new int[trie.nbrOfNodes];
+        trie.cityPrev = newCityArray(trie.cityNext.length);
+        trie.cityNode = newCityArray(trie.cityNext.length);
+        Arrays.fill(trie.parent, NONE);
+        for (int node = 0; node < trie.nbrOfNodes; node++)
+        {
+            for (int child = trie.firstChild[node]; child != NONE; child = trie.nextSibling[child])
+                trie.parent[child] = node;
+            int tail = NONE;
+            for (int cityId = trie.cityHead[node]; cityId != NONE; cityId = trie.cityNext[cityId])
+            {
+                trie.cityPrev[cityId] = tail;
+                trie.cityNode[cityId] = node;
+                tail = cityId;
+                trie.live[node]++;
+            }
+            if (tail != NONE)
+                trie.cityPrev[trie.cityHead[node]] = tail;
+        }
+        for (int node = trie.nbrOfNodes - 1; node >= 0; node--)
+            if (trie.parent[node] != NONE)
+                trie.live[trie.parent[node]] += trie.live[node];
+        return trie;
+    }
+}
@@ -0,0 +1,382 @@
+package com.css.geographygame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * <h1>Endgame Solver</h1>
+ * Solves the game exactly once the number of cities left is at or below the
+ * threshold.  There is no precomputed table: bestMove() runs a forward
+ * search of the position during play and memoizes the win/loss value of
+ * every position it solves in a tablebase together with a winning move, so
+ * a later move of the same game or of a later game that reaches a solved
+ * position is answered with one lookup.
+ * <p>
+ * A position is keyed by a 64 bit hash of the letter the player to move has
+ * to start with and the count of every letter pair, kept up to date as the
+ * search plays and takes back moves, so no node allocates.  The tablebase is
+ * an open addressing table of long keys and int values that grows up to
+ * MAX_CAPACITY slots and then stops storing new positions.  A search that
+ * visits more than NODE_LIMIT positions gives up, and the solver then lowers
+ * its threshold below the number of cities of that position, so the next
+ * moves don't start the same search again.
+ * </p>
+ * <p>
+ * The tablebase can be written to disk and loaded by later games.  The keys
+ * are built from the code points of the letters and not from the dense
+ * index, so a tablebase stays valid for an index built from the same cities
+ * file in any order.  File layout (big endian): magic, version, number of
+ * entries, every entry as key and value, then the CRC32 of everything
+ * before it.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.EndgameSolver cities.csv tablebase.tb threshold
+ * solves every opening of a cities file that has no more than threshold
+ * cities and writes the tablebase.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class EndgameSolver {
+
+    public static final int MAGIC = 0x47454F54; //GEOT
+    public static final int VERSION = 3;
+    public static final int NOT_SOLVED = -2;
+    //upper bound of positions visited by one solve so a move can't take forever
+    public static final long NODE_LIMIT = 5000000;
+    //slots of the tablebase, 12 bytes each
+    private static final int MAX_CAPACITY = 1 << 21;
+
+    private final CityIndex index;
+    private final int nbrOfLetters;
+    //lowered when a position at or below it can't be solved
+    private volatile int threshold;
+    //value = 1 | winning last letter << 1 for a win, 0 for a loss, key 0 marks an empty slot
+    private long[] keys = new long[1024];
+    private int[] values = new int[1024];
+    private int size;
+    private volatile boolean modified;
+
+    //position being solved
+    private final int[] pairCount;
+    private final int[] firstCount;
+    private final long[] pairKeys;        //hash of one city of the pair
+    private final long[] letterKeys;      //hash of the letter to start with
+    private long countsKey;               //sum of the pair hashes of the cities left
+    private int[] live = new int[16];     //pairs with cities at the start of the solve
+    private int nbrOfLive;
+    private long nodes;
+    private boolean win;
+
+    public EndgameSolver(CityIndex _index, int _threshold)
+    {
+        index = _index;
+        nbrOfLetters = index.nbrOfLetters;
+        threshold = _threshold;
+        pairCount = new int[nbrOfLetters * nbrOfLetters];
+        firstCount = new int[nbrOfLetters];
+        pairKeys = new long[nbrOfLetters * nbrOfLetters];
+        letterKeys = new long[nbrOfLetters];
+        for (int f = 0; f < nbrOfLetters; f++)
+        {
+            letterKeys[f] = OpeningBook.letterKey(index.letters[f]);
+            for (int l = 0; l < nbrOfLetters; l++)
+                pairKeys[f * nbrOfLetters + l] = OpeningBook.mix((long) index.letters[f] << 21 | index.letters[l]);
+        }
+    }
+
+    /**
+     * Returns the number of cities left at which the solver takes over, it
+     * starts at the threshold it was created with.
+     */
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Returns true if the position of the last call to bestMove() is won
+     * by the player to move.
+     */
+    public boolean isWin()
+    {
+        return win;
+    }
+
+    /**
+     * bestMove() solves the position where the player to move has to start
+     * with the letter first.
+     * @param _pairCount city counts by letter pair of the session
+     * @param _firstCount city counts by first letter of the session
+     * @param first dense index of the letter to start with
+     * @return int dense index of the last letter to play, -1 if there is no
+     * legal move or NOT_SOLVED if the position is above the threshold or too
+     * big to solve
+     */
+    public synchronized int bestMove(int[] _pairCount, int[] _firstCount, int first)
+    {
+        int nbrOfCities = 0;
+        for (int count : _firstCount)
+            nbrOfCities += count;
+        if (nbrOfCities > threshold)
+            return NOT_SOLVED;
+        System.arraycopy(_pairCount, 0, pairCount, 0, pairCount.length);
+        System.arraycopy(_firstCount, 0, firstCount, 0, firstCount.length);
+
+        nbrOfLive = 0;
+        countsKey = 0;
+        for (int pair = 0; pair < pairCount.length; pair++)
+        {
+            if (pairCount[pair] == 0)
+                continue;
+            if (nbrOfLive == live.length)
+                live = Arrays.copyOf(live, nbrOfLive * 2);
+            live[nbrOfLive++] = pair;
+            countsKey += pairCount[pair] * pairKeys[pair];
+        }
+
+        nodes = 0;
+        win = false;
+        int value = solve(first);
+        if (value == NOT_SOLVED) {
+            //don't search again until fewer cities are left
+            threshold = nbrOfCities - 1;
+            GameLog.info("EndgameSolver.bestMove()::" + nbrOfCities + " cities are too many to solve, threshold lowered to "
+                    + threshold);
+            return NOT_SOLVED;
+        }
+        win = (value & 1) == 1;
+        if (win)
+            return index.letterIndex(value >>> 1);
+
+        //every move loses against a perfect opponent, leave the opponent the fewest responses
+        int best = -1;
+        int bestResponses = Integer.MAX_VALUE;
+        for (int last = 0; last < nbrOfLetters; last++)
+        {
+            if (pairCount[first * nbrOfLetters + last] == 0)
+                continue;
+            int responses = firstCount[last] - (first == last ? 1 : 0);
+            if (responses > 0 && responses < bestResponses) {
+                best = last;
+                bestResponses = responses;
+            }
+        }
+        return best;
+    }
+
+    private int solve(int first)
+    {
+        if (++nodes > NODE_LIMIT)
+            return NOT_SOLVED;
+        long key = nonZero(countsKey ^ letterKeys[first]);
+        int known = get(key);
+        if (known != NOT_SOLVED)
+            return known;
+
+        int value = 0;
+        for (int i = 0; i < nbrOfLive; i++)
+        {
+            int pair = live[i];
+            if (pair / nbrOfLetters != first || pairCount[pair] == 0)
+                continue;
+            int last = pair % nbrOfLetters;
+            if (firstCount[last] - (first == last ? 1 : 0) <= 0)
+                continue;
+            pairCount[pair]--;
+            firstCount[first]--;
+            countsKey -= pairKeys[pair];
+            int reply = solve(last);
+            pairCount[pair]++;
+            firstCount[first]++;
+            countsKey += pairKeys[pair];
+            if (reply == NOT_SOLVED)
+                return NOT_SOLVED;
+            //the move wins if the opponent loses after it
+            if ((reply & 1) == 0) {
+                value = 1 | (index.letters[last] << 1);
+                break;
+            }
+        }
+        put(key, value);
+        return value;
+    }
+
+    //0 marks an empty slot
+    private static long nonZero(long key)
+    {
+        return key == 0 ? 1 : key;
+    }
+
+    //returns the value of the position or NOT_SOLVED
+    private int get(long key)
+    {
+        int mask = keys.length - 1;
+        for (int slot = (int) OpeningBook.mix(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+                return values[slot];
+        return NOT_SOLVED;
+    }
+
+    private void put(long key, int value)
+    {
+        if (size * 4 >= keys.length * 3) {
+            if (keys.length == MAX_CAPACITY)
+                return;
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[keys.length * 2];
+            values = new int[keys.length];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++)
+                if (oldKeys[slot] != 0)
+                    insert(oldKeys[slot], oldValues[slot]);
+        }
+        insert(key, value);
+        modified = true;
+    }
+
+    private void insert(long key, int value)
+    {
+        int mask = keys.length - 1;
+        int slot = (int) OpeningBook.mix(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        if (keys[slot] == 0)
+            size++;
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * load() adds the positions of a tablebase file.  Returns false if the
+     * file doesn't exist or is not a valid tablebase of this version.
+     * @param fileName
+     * @return boolean
+     */
+    public synchronized boolean load(String fileName)
+    {
+        if (fileName == null || fileName.isEmpty() || !new File(fileName).exists())
+            return false;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(fileName)), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                GameLog.warn("EndgameSolver.load()::" + fileName + " is not a tablebase of version " + VERSION);
+                return false;
+            }
+            int entries = in.readInt();
+            long[] fileKeys = new long[entries];
+            int[] fileValues = new int[entries];
+            for (int e = 0; e < entries; e++)
+            {
+                fileKeys[e] = in.readLong();
+                fileValues[e] = in.readInt();
+            }
+            long checksum = crc.getValue();
+            if (in.readLong() != checksum) {
+                GameLog.warn("EndgameSolver.load()::Checksum mismatch for " + fileName);
+                return false;
+            }
+            boolean wasModified = modified;
+            for (int e = 0; e < entries; e++)
+                put(fileKeys[e], fileValues[e]);
+            modified = wasModified;
+            return true;
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * save() writes the tablebase if positions were solved since it was
+     * loaded or last saved.
+     * @param fileName
+     * @throws IOException
+     */
+    public synchronized void save(String fileName) throws IOException
+    {
+        if (!modified || fileName == null || fileName.isEmpty())
+            return;
+        modified = false;
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fileName)), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int slot = 0; slot < keys.length; slot++)
+            {
+                if (keys[slot] == 0)
+                    continue;
+                out.writeLong(keys[slot]);
+                out.writeInt(values[slot]);
+            }
+            out.flush();
+            out.writeLong(crc.getValue());
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 3) {
+                System.out.println("EndgameSolver.main() expects the cities CSV file, the tablebase file and the threshold.");
+                return;
+            }
+            long start = System.currentTimeMillis();
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            EndgameSolver solver = new EndgameSolver(index, Integer.parseInt(args[2]));
+            solver.load(args[1]);
+            if (index.getNbrOfCities() - 1 > solver.getThreshold()) {
+                System.out.println("EndgameSolver.main()::" + args[0] + " has " + index.getNbrOfCities()
+                        + " cities, more than the threshold " + solver.getThreshold());
+                return;
+            }
+            //solve the position after every possible first city
+            int wins = 0;
+            int unsolved = 0;
+            for (int id = 0; id < index.names.size(); id++)
+            {
+                GameSession session = index.newSession();
+                session.removeCity(id);
+                int last = solver.bestMove(session.pairCount, session.firstCount, index.nameLast(id));
+                if (last == NOT_SOLVED)
+                    unsolved++;
+                else if (solver.isWin())
+                    wins++;
+            }
+            solver.save(args[1]);
+            System.out.println("EndgameSolver.main()::Solved " + (index.names.size() - unsolved) + " openings, " + wins
+                    + " are won by the second player, " + unsolved + " too big, " + solver.size() + " positions in "
+                    + args[1] + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.css.geographygame;
+
+import java.io.*;
+
+/**
+ * <h1>File Transport</h1>
+ * The original inter-op protocol.  Every message produces two files in the
+ * play directory, one for the data and a trigger file that is created once
+ * the data is written.  The reader polls for the trigger file every 100 ms
+ * up to readTimeout times.
+ * <p>
+ * Players write Player1_1.txt and Player1_TriggerRSP_1.txt, the controller
+ * writes CTRLPlayer2_1.txt and CTRLPlayer2_Trigger_1.txt.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class FileTransport implements GameTransport {
+
+    public static final String PLAYER_TRIGGER = "_TriggerRSP_";
+    public static final String CONTROLLER_TRIGGER = "_Trigger_";
+
+    protected final String playDirectory;
+    protected final String writeTrigger;
+    protected final String readTrigger;
+    protected final int readTimeout;
+
+    /**
+     * @param _playDirectory directory the files are exchanged in
+     * @param controller true for the controller side of the protocol
+     * @param _readTimeout number of 100 ms waits for a trigger file
+     */
+    public FileTransport(String _playDirectory, boolean controller, int _readTimeout)
+    {
+        playDirectory = _playDirectory;
+        writeTrigger = controller ? CONTROLLER_TRIGGER : PLAYER_TRIGGER;
+        readTrigger = controller ? PLAYER_TRIGGER : CONTROLLER_TRIGGER;
+        readTimeout = _readTimeout;
+        File fPlayDir = new File(playDirectory);
+        if (!fPlayDir.exists())
+            fPlayDir.mkdirs();
+    }
+
+    protected String dataFile(String filePrefix, int index)
+    {
+        return playDirectory + File.separator + filePrefix + "_" + index + ".txt";
+    }
+
+    protected String triggerFile(String filePrefix, String trigger, int index)
+    {
+        return playDirectory + File.separator + filePrefix + trigger + index + ".txt";
+    }
+
+    public void writeNext(String filePrefix, int index, String data) throws Exception
+    {
+        BufferedWriter bfWriter = new BufferedWriter(new FileWriter(new File(dataFile(filePrefix, index))));
+        bfWriter.write(data);
+        bfWriter.flush();
+        bfWriter.close();
+        BufferedWriter bfTriggerWriter = new BufferedWriter(new FileWriter(new File(triggerFile(filePrefix, writeTrigger, index))));
+        bfTriggerWriter.write("TAG! You're it.");
+        bfTriggerWriter.flush();
+        bfTriggerWriter.close();
+    }
+
+    public String readNext(String filePrefix, int index) throws Exception
+    {
+        int count = 0;
+        File trigFile = new File(triggerFile(filePrefix, readTrigger, index));
+        //wait three seconds for a response
+        while (count < readTimeout)
+        {
+            if (trigFile.exists())
+                break;
+            else
+                Thread.sleep(100);
+            count++;
+        }
+        return readData(filePrefix, index);
+    }
+
+    protected String readData(String filePrefix, int index) throws Exception
+    {
+        BufferedReader bfReader = new BufferedReader(new FileReader(new File(dataFile(filePrefix, index))));
+        String response = bfReader.readLine();
+        bfReader.close();
+        return response;
+    }
+
+    public void close() throws IOException
+    {
+    }
+}
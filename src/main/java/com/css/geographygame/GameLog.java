@@ -0,0 +1,314 @@
+package com.css.geographygame;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>Game Log</h1>
+ * Asynchronous log of the game events of the players and the controller.
+ * A call that passes the level check claims a slot of a lock free ring
+ * buffer with one compare-and-set and returns, and a daemon thread writes the
+ * buffered messages in batches to the log file, or to System.out when no
+ * file is set.  A full buffer drops the message instead of blocking the
+ * game, and the writer reports how many messages were dropped.
+ * <p>
+ * The level is read from prefix.log.level (ERROR, WARN, INFO, DEBUG or
+ * TRACE, default INFO) and the file from prefix.log.file, where the prefix is
+ * geo.player. or geo.controller.  When the properties file is watched the
+ * writer re-reads the level whenever the file changes, so the level can be
+ * raised while a game is running.  Callers that build a message for DEBUG or
+ * TRACE check isEnabled() first so a disabled level costs one volatile read.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class GameLog {
+
+    public static final int ERROR = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    public static final int TRACE = 4;
+    private static final String[] LEVEL_NAMES = {"ERROR", "WARN", "INFO", "DEBUG", "TRACE"};
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    private static final long IDLE_NANOS = 5000000;
+    private static final long WATCH_MILLIS = 1000;
+
+    //slot is published by setting the message, the writer clears it before moving the tail
+    private static final AtomicReferenceArray<String> messages = new AtomicReferenceArray<>(CAPACITY);
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] levels = new int[CAPACITY];
+    private static final AtomicLong head = new AtomicLong();
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static volatile int level = INFO;
+    private static volatile String fileName;
+    private static volatile String watchFile;
+    private static volatile String watchPrefix;
+    private static long watchModified;
+    private static volatile Thread writerThread;
+
+    private GameLog()
+    {
+    }
+
+    public static boolean isEnabled(int _level)
+    {
+        return _level <= level;
+    }
+
+    public static int getLevel()
+    {
+        return level;
+    }
+
+    public static void setLevel(int _level)
+    {
+        level = _level;
+    }
+
+    public static void error(String message)
+    {
+        log(ERROR, message);
+    }
+
+    public static void warn(String message)
+    {
+        log(WARN, message);
+    }
+
+    public static void info(String message)
+    {
+        log(INFO, message);
+    }
+
+    public static void debug(String message)
+    {
+        log(DEBUG, message);
+    }
+
+    public static void trace(String message)
+    {
+        log(TRACE, message);
+    }
+
+    /**
+     * log() queues the message if the level is enabled.  It never blocks,
+     * the message is dropped if the writer is too far behind.
+     * @param _level
+     * @param message
+     */
+    public static void log(int _level, String message)
+    {
+        if (_level > level)
+            return;
+        startWriter();
+        while (true)
+        {
+            long h = head.get();
+            if (h - tail.get() >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (head.compareAndSet(h, h + 1)) {
+                int slot = (int) h & MASK;
+                times[slot] = System.currentTimeMillis();
+                levels[slot] = _level;
+                messages.lazySet(slot, message);
+                return;
+            }
+        }
+    }
+
+    /**
+     * configure() sets the level and, the first time it is given, the log file.
+     * @param props
+     * @param prefix geo.player. or geo.controller.
+     */
+    public static synchronized void configure(Properties props, String prefix)
+    {
+        level = parseLevel(props.getProperty(prefix + "log.level"), level);
+        String file = props.getProperty(prefix + "log.file");
+        if (fileName == null && file != null && !file.isEmpty())
+            fileName = file;
+    }
+
+    /**
+     * watch() makes the writer re-read prefix.log.level from the properties
+     * file whenever it is modified.
+     * @param configFile
+     * @param prefix
+     */
+    public static synchronized void watch(String configFile, String prefix)
+    {
+        if (configFile == null)
+            return;
+        watchFile = configFile;
+        watchPrefix = prefix;
+        watchModified = new File(configFile).lastModified();
+    }
+
+    public static int parseLevel(String name, int defaultLevel)
+    {
+        if (name == null)
+            return defaultLevel;
+        for (int l = 0; l < LEVEL_NAMES.length; l++)
+            if (LEVEL_NAMES[l].equalsIgnoreCase(name.trim()))
+                return l;
+        return defaultLevel;
+    }
+
+    /**
+     * flush() waits until every message queued so far is written.
+     */
+    public static void flush()
+    {
+        long target = head.get();
+        while (writerThread != null && tail.get() < target && writerThread.isAlive())
+            LockSupport.parkNanos(IDLE_NANOS / 5);
+    }
+
+    private static void startWriter()
+    {
+        if (writerThread != null)
+            return;
+        synchronized (GameLog.class)
+        {
+            if (writerThread != null)
+                return;
+            Thread t = new Thread(GameLog::write, "GameLog-writer");
+            t.setDaemon(true);
+            t.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(GameLog::flush));
+            writerThread = t;
+        }
+    }
+
+    private static void write()
+    {
+        StringBuilder sb = new StringBuilder(256);
+        Writer out = null;
+        long lastWatch = 0;
+        while (true)
+        {
+            try {
+                if (out == null && fileName != null)
+                    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), StandardCharsets.UTF_8));
+
+                //drain everything that is published in one batch
+                long t = tail.get();
+                int written = 0;
+                for (String message; (message = messages.get((int) t & MASK)) != null; t++)
+                {
+                    int slot = (int) t & MASK;
+                    sb.setLength(0);
+                    appendTimestamp(sb, times[slot]).append(' ').append(LEVEL_NAMES[levels[slot]]).append(' ').append(message).append('\n');
+                    if (out != null)
+                        out.write(sb.toString());
+                    else
+                        System.out.print(sb);
+                    messages.set(slot, null);
+                    tail.lazySet(t + 1);
+                    written++;
+                }
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    sb.setLength(0);
+                    String warning = appendTimestamp(sb, System.currentTimeMillis()).append(" WARN GameLog dropped ")
+                            .append(lost).append(" messages\n").toString();
+                    if (out != null)
+                        out.write(warning);
+                    else
+                        System.out.print(warning);
+                }
+                if (written > 0 || lost > 0) {
+                    if (out != null)
+                        out.flush();
+                    else
+                        System.out.flush();
+                }
+
+                long now = System.currentTimeMillis();
+                if (watchFile != null && now - lastWatch >= WATCH_MILLIS) {
+                    lastWatch = now;
+                    reload();
+                }
+                if (written == 0)
+                    LockSupport.parkNanos(IDLE_NANOS);
+            } catch (Exception e)
+            {
+                e.printStackTrace();
+                LockSupport.parkNanos(IDLE_NANOS * 100);
+            }
+        }
+    }
+
+    /**
+     * appendTimestamp() formats the time as yyyy-MM-ddTHH:mm:ss.SSSZ in UTC
+     * without a Calendar, which would take longer to load than the game.
+     */
+    static StringBuilder appendTimestamp(StringBuilder sb, long millis)
+    {
+        long days = Math.floorDiv(millis, 86400000L);
+        int msOfDay = (int) Math.floorMod(millis, 86400000L);
+        //civil date from days since 1970-01-01
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        sb.append(year).append('-');
+        pad(sb, month, 2).append('-');
+        pad(sb, day, 2).append('T');
+        pad(sb, msOfDay / 3600000, 2).append(':');
+        pad(sb, msOfDay / 60000 % 60, 2).append(':');
+        pad(sb, msOfDay / 1000 % 60, 2).append('.');
+        return pad(sb, msOfDay % 1000, 3).append('Z');
+    }
+
+    private static StringBuilder pad(StringBuilder sb, int value, int digits)
+    {
+        for (int limit = 10; digits > 1; digits--, limit *= 10)
+            if (value < limit)
+                sb.append('0');
+        return sb.append(value);
+    }
+
+    private static void reload() throws IOException
+    {
+        File file = new File(watchFile);
+        long modified = file.lastModified();
+        if (modified == watchModified)
+            return;
+        watchModified = modified;
+        Properties props = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            props.load(input);
+        }
+        int newLevel = parseLevel(props.getProperty(watchPrefix + "log.level"), level);
+        if (newLevel != level) {
+            level = newLevel;
+            info("GameLog level changed to " + LEVEL_NAMES[newLevel] + " from " + watchFile);
+        }
+    }
+}
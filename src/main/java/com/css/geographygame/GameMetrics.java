@@ -0,0 +1,140 @@
+package com.css.geographygame;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <h1>Game Metrics</h1>
+ * Latency histograms and counters of the hot paths of the players and the
+ * controller.  The metrics belong to the JVM, so every player and match that
+ * runs in one process records into the same histograms.  Recording a value
+ * doesn't allocate, see {@link LatencyHistogram}, and the counters are
+ * LongAdders so threads of concurrent games don't contend on one cache line.
+ * <p>
+ * The histograms and counters are registered as MBeans under
+ * com.css.geographygame, so they can be watched with jconsole or any JMX
+ * client.  When prefix.metrics.file is set (geo.player. or geo.controller.)
+ * a daemon thread appends all metrics to that file every
+ * prefix.metrics.interval seconds (default 10) and once more at shutdown.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class GameMetrics implements GameMetricsMBean {
+
+    public static final LatencyHistogram NEXT_MOVE = new LatencyHistogram("nextMove");
+    public static final LatencyHistogram READ_NEXT = new LatencyHistogram("readNext");
+    public static final LatencyHistogram WRITE_NEXT = new LatencyHistogram("writeNext");
+    public static final LatencyHistogram VALIDATE = new LatencyHistogram("validate");
+    //request handling of the GameServer, from the parsed request to the response in the write buffer
+    public static final LatencyHistogram SERVER_REQUEST = new LatencyHistogram("serverRequest");
+    private static final LatencyHistogram[] HISTOGRAMS = {NEXT_MOVE, READ_NEXT, WRITE_NEXT, VALIDATE, SERVER_REQUEST};
+
+    //candidate cities picked and discarded because the opponent had no response to them
+    public static final LongAdder REJECTED_CANDIDATES = new LongAdder();
+    //trie nodes walked by lookups, picks and removals of the trie engine
+    public static final LongAdder TRIE_NODES_VISITED = new LongAdder();
+
+    private static final GameMetrics INSTANCE = new GameMetrics();
+    private static boolean registered;
+    private static ScheduledExecutorService dumper;
+
+    private GameMetrics()
+    {
+    }
+
+    @Override
+    public long getRejectedCandidates()
+    {
+        return REJECTED_CANDIDATES.sum();
+    }
+
+    @Override
+    public long getTrieNodesVisited()
+    {
+        return TRIE_NODES_VISITED.sum();
+    }
+
+    /**
+     * configure() registers the MBeans and starts the periodic dump if
+     * prefix + "metrics.file" is set.  Calling it again only starts the dump
+     * if it isn't running yet.
+     * @param props
+     * @param prefix geo.player., geo.controller. or geo.server.
+     */
+    public static synchronized void configure(Properties props, String prefix)
+    {
+        register();
+        String fileName = props.getProperty(prefix + "metrics.file");
+        if (fileName == null || fileName.isEmpty() || dumper != null)
+            return;
+        long interval = Long.parseLong(props.getProperty(prefix + "metrics.interval", "10"));
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "GameMetrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(fileName), interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(fileName)));
+    }
+
+    /**
+     * register() registers the MBeans on a daemon thread, since starting the
+     * platform MBean server takes a few hundred ms that would otherwise delay
+     * the start of the game.
+     */
+    public static synchronized void register()
+    {
+        if (registered)
+            return;
+        registered = true;
+        Thread t = new Thread(() -> {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(INSTANCE, new ObjectName("com.css.geographygame:type=GameMetrics"));
+                for (LatencyHistogram histogram : HISTOGRAMS)
+                    server.registerMBean(histogram, new ObjectName("com.css.geographygame:type=Latency,name=" + histogram.getName()));
+            } catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }, "GameMetrics-register");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * dump() appends the current value of every metric to the file.
+     * @param fileName
+     */
+    public static void dump(String fileName)
+    {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, true))) {
+            print(out);
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public static void print(PrintWriter out)
+    {
+        out.println("# " + new Date());
+        for (LatencyHistogram histogram : HISTOGRAMS)
+            out.println(histogram);
+        out.println("rejectedCandidates=" + REJECTED_CANDIDATES.sum() + " trieNodesVisited=" + TRIE_NODES_VISITED.sum());
+        out.flush();
+    }
+}
@@ -0,0 +1,16 @@
+package com.css.geographygame;
+
+/**
+ * <h1>Game Metrics MBean</h1>
+ * JMX view of the counters of {@link GameMetrics}.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public interface GameMetricsMBean {
+
+    long getRejectedCandidates();
+
+    long getTrieNodesVisited();
+}
@@ -0,0 +1,177 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>Game Replay</h1>
+ * Replays the games of {@link MoveJournal} files without any transport or
+ * file waits.  The controller replay feeds every recorded move through
+ * checkAndRemoveValidCity() and checkIfCityHasValidResponse() of a fresh
+ * match, so a change of the validation can be checked against every game
+ * that was played.  The player replay puts a graph engine player, optionally
+ * with the lookahead search, in the seat of Player1 and Player2 and feeds it
+ * the recorded moves of the opponent with nextMove(), and counts the games
+ * it answers exactly like the recorded player and the first move where it
+ * doesn't, so a new strategy can be compared with the games of the old one.
+ * <p>
+ * Usage: java com.css.geographygame.GameReplay cities.csv journalFileOrDirectory [searchMillis]
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class GameReplay {
+
+    private final CityIndex index;
+    private final List<MoveJournal.Game> games = new ArrayList<>();
+
+    //statistics of the last replay
+    public long moves;
+    public long nanos;
+    public int rejected;
+    public int reproduced;
+    public long divergencePlies;
+
+    public GameReplay(CityIndex _index)
+    {
+        index = _index;
+    }
+
+    public List<MoveJournal.Game> getGames()
+    {
+        return games;
+    }
+
+    /**
+     * load() reads the journals of the file or directory and skips the
+     * files that can't be read with this index.
+     * @param path
+     * @return int number of games loaded
+     */
+    public int load(String path)
+    {
+        int loaded = 0;
+        for (File file : MoveJournal.list(path))
+        {
+            try {
+                games.add(MoveJournal.read(file.getPath(), index));
+                loaded++;
+            } catch (IOException e)
+            {
+                GameLog.warn("GameReplay.load()::" + e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * replayController() validates every recorded move with the controller
+     * rules.  A move of a journal is only recorded once it was accepted, so
+     * rejected counts the moves that the current validation doesn't accept.
+     */
+    public void replayController()
+    {
+        long start = System.nanoTime();
+        moves = 0;
+        rejected = 0;
+        for (MoveJournal.Game game : games)
+        {
+            GeoGameController match = new GeoGameController("replay", null, 0, index);
+            for (int i = 0; i < game.moves.length; i++)
+            {
+                String city = index.names.name(game.moves[i]);
+                if (!match.checkAndRemoveValidCity(city))
+                    rejected++;
+                //the last move of a lost game may leave no response
+                else if (!match.checkIfCityHasValidResponse(city) && i < game.moves.length - 1)
+                    rejected++;
+            }
+            moves += game.moves.length;
+        }
+        nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * replayPlayer() plays the seat of player (1 or 2) against the recorded
+     * moves of the opponent and stops a game at the first response that
+     * differs from the recorded one.
+     * @param player 1 or 2
+     * @param searchMillis time budget of the lookahead search, 0 for the greedy choice
+     */
+    public void replayPlayer(int player, long searchMillis)
+    {
+        long start = System.nanoTime();
+        moves = 0;
+        reproduced = 0;
+        divergencePlies = 0;
+        for (MoveJournal.Game game : games)
+        {
+            GeographyGame gg = new GeographyGame(index);
+            gg.searchMillis = searchMillis;
+            gg.loadData();
+            int i = player == 1 ? 1 : 0;
+            if (player == 1 && game.moves.length > 0)
+                gg.removeCity(index.names.name(game.moves[0]));
+            boolean same = true;
+            for (; i + 1 < game.moves.length; i += 2)
+            {
+                String response = gg.nextMove(index.names.name(game.moves[i]));
+                moves++;
+                if (!response.equals(index.names.name(game.moves[i + 1]))) {
+                    same = false;
+                    divergencePlies += i + 1;
+                    break;
+                }
+            }
+            if (same)
+                reproduced++;
+        }
+        nanos = System.nanoTime() - start;
+    }
+
+    public double movesPerSecond()
+    {
+        return moves * 1e9 / Math.max(1, nanos);
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 2) {
+                System.out.println("GameReplay.main() expects the cities CSV file, a journal file or directory and optionally the search millis.");
+                return;
+            }
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            long searchMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+            GameReplay replay = new GameReplay(index);
+            int loaded = replay.load(args[1]);
+            long recorded = 0;
+            for (MoveJournal.Game game : replay.getGames())
+                recorded += game.moves.length;
+            System.out.println("GameReplay.main()::Loaded " + loaded + " games with " + recorded + " moves");
+
+            //the first rounds warm up the JIT
+            for (int round = 0; round < 5; round++)
+                replay.replayController();
+            System.out.println(String.format("controller: %d moves, %d rejected, %.0f moves/s",
+                    replay.moves, replay.rejected, replay.movesPerSecond()));
+            for (int player = 1; player <= 2; player++)
+            {
+                replay.replayPlayer(player, searchMillis);
+                if (player == 1)
+                    replay.replayPlayer(player, searchMillis);
+                int diverged = loaded - replay.reproduced;
+                System.out.println(String.format("player%d: %d moves, %d of %d games reproduced, first difference at move %.1f on average, %.0f moves/s",
+                        player, replay.moves, replay.reproduced, loaded,
+                        diverged == 0 ? 0.0 : replay.divergencePlies / (double) diverged, replay.movesPerSecond()));
+            }
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
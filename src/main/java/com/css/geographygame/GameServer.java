@@ -0,0 +1,552 @@
+package com.css.geographygame;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Game Server</h1>
+ * Long running server that keeps one {@link CityIndex} loaded and answers
+ * nextMove() for any number of games over HTTP/1.1, so a game doesn't cost
+ * a JVM and a load of the cities file.  Every game is a {@link GameSession}
+ * identified by the id the server returns when it is created.
+ * <pre>
+ * POST   /sessions            body: cities already played, one per line (optional)
+ *                             returns the id of the new session
+ * POST   /sessions/{id}/move  body: the opponent's city
+ *                             returns the response city or a Winner/Loser message
+ * DELETE /sessions/{id}       ends the game
+ * GET    /metrics             GameMetrics of the server
+ * </pre>
+ * Bodies are text/plain in UTF-8.  A session ends by itself after a Winner
+ * or Loser response and is dropped when it isn't used for
+ * geo.server.session.timeout seconds.
+ * <p>
+ * geo.server.threads event loops run the non-blocking connections, one
+ * Selector each, and the accepted connections are spread over the loops.
+ * Connections are kept alive and requests can be pipelined: every whole
+ * request in the read buffer is answered in order before the loop reads
+ * again, and a connection whose responses can't all be written is not read
+ * until they are.  Moves are the greedy choice and the opening book of
+ * geo.server.book, the lookahead search would hold an event loop for its
+ * whole time budget.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.GameServer server.properties
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class GameServer implements Closeable {
+
+    private static final int MAX_HEADER_SIZE = 8192;
+    private static final int MAX_BODY_SIZE = 65536;
+    private static final String SESSIONS = "/sessions";
+    private static final String MOVE = "/move";
+
+    private class Session
+    {
+        final GameSession game;
+        volatile long lastUsed;
+        public Session(GameSession _game)
+        {
+            game = _game;
+            lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private class Connection
+    {
+        final SocketChannel channel;
+        //in is in read mode while requests are parsed, out is in write mode between writes
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        boolean closeAfterWrite;
+        boolean keepAliveHeader;
+        public Connection(SocketChannel _channel)
+        {
+            channel = _channel;
+        }
+    }
+
+    private class EventLoop implements Runnable
+    {
+        final Selector selector;
+        final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        Thread thread;
+        public EventLoop() throws IOException
+        {
+            selector = Selector.open();
+        }
+
+        void add(SocketChannel channel)
+        {
+            accepted.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            while (running)
+            {
+                try {
+                    selector.select(1000);
+                    SocketChannel channel;
+                    while ((channel = accepted.poll()) != null)
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                    if (this == loops[0])
+                        expireSessions();
+                } catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+            for (SelectionKey key : selector.keys())
+                closeQuietly(key);
+            closeQuietly(selector);
+        }
+    }
+
+    private final CityIndex index;
+    private final OpeningBook book;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionId = new AtomicLong();
+    private final EventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+    private long lastExpiry;
+    private volatile boolean running;
+    //sessions above this number are refused with 503
+    public int maxSessions = 100000;
+    //sessions not used for this long are dropped, 0 to keep them until they end
+    public long sessionTimeoutMillis = 600000;
+
+    /**
+     * Creates a server for the index, start() opens the port.
+     * @param _index
+     * @param _book opening book of the sessions, may be null
+     * @param _threads number of event loops
+     */
+    public GameServer(CityIndex _index, OpeningBook _book, int _threads) throws IOException
+    {
+        index = _index;
+        book = _book;
+        loops = new EventLoop[Math.max(1, _threads)];
+        for (int i = 0; i < loops.length; i++)
+            loops[i] = new EventLoop();
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length == 0) {
+                GameLog.error("GameServer.main() expects a properties file as input.");
+                return;
+            }
+            Properties props = new Properties();
+            try (InputStream input = new FileInputStream(args[0])) {
+                props.load(input);
+            }
+            GameLog.configure(props, "geo.server.");
+            GameMetrics.configure(props, "geo.server.");
+            GameLog.watch(args[0], "geo.server.");
+
+            //the graph engine of a player loads the snapshot, the CSV file and the book
+            GeographyGame gg = new GeographyGame();
+            gg.setNormalizer(NameNormalizer.fromProperties(props, "geo.server."));
+            gg.fileName = props.getProperty("geo.server.datafile");
+            gg.indexFile = props.getProperty("geo.server.indexfile");
+            gg.bookFile = props.getProperty("geo.server.book");
+            gg.loadData();
+
+            int threads = Integer.parseInt(props.getProperty("geo.server.threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            GameServer server = new GameServer(gg.cityIndex, gg.book, threads);
+            server.maxSessions = Integer.parseInt(props.getProperty("geo.server.max.sessions", "100000"));
+            server.sessionTimeoutMillis = Long.parseLong(props.getProperty("geo.server.session.timeout", "600")) * 1000;
+            int port = server.start(Integer.parseInt(props.getProperty("geo.server.port", "8080")));
+            GameLog.info("GameServer.main()::Serving "+gg.cityIndex.getNbrOfCities()+" cities on port "+port
+                    +" with "+threads+" event loops");
+            server.join();
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * start() binds the port and starts the event loops.
+     * @param port 0 for any free port
+     * @return int the port the server listens on
+     */
+    public int start(int port) throws IOException
+    {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        for (int i = 0; i < loops.length; i++)
+        {
+            loops[i].thread = new Thread(loops[i], "GameServer-" + i);
+            loops[i].thread.start();
+        }
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public void join() throws InterruptedException
+    {
+        for (EventLoop loop : loops)
+            loop.thread.join();
+    }
+
+    public int getNbrOfSessions()
+    {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        for (EventLoop loop : loops)
+            loop.selector.wakeup();
+        try {
+            join();
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        serverChannel.close();
+    }
+
+    private void handle(SelectionKey key)
+    {
+        try {
+            if (!key.isValid())
+                return;
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection c = (Connection) key.attachment();
+            if (key.isReadable())
+                read(key, c);
+            else if (key.isWritable())
+                write(key, c);
+        } catch (IOException e)
+        {
+            //the client closed or reset the connection
+            GameLog.debug("GameServer.handle()::"+e);
+            closeQuietly(key);
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null)
+        {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            loops[nextLoop++ % loops.length].add(channel);
+        }
+    }
+
+    private void read(SelectionKey key, Connection c) throws IOException
+    {
+        if (!c.in.hasRemaining()) {
+            //handleRequest() answers larger requests with an error before the buffer gets here
+            if (c.in.capacity() >= MAX_HEADER_SIZE + MAX_BODY_SIZE) {
+                closeQuietly(key);
+                return;
+            }
+            c.in = grow(c.in, c.in.capacity() * 2);
+        }
+        if (c.channel.read(c.in) == -1) {
+            closeQuietly(key);
+            return;
+        }
+        c.in.flip();
+        while (!c.closeAfterWrite && c.in.hasRemaining() && handleRequest(c))
+            ;
+        c.in.compact();
+        write(key, c);
+    }
+
+    private void write(SelectionKey key, Connection c) throws IOException
+    {
+        c.out.flip();
+        c.channel.write(c.out);
+        boolean done = !c.out.hasRemaining();
+        c.out.compact();
+        if (done && c.closeAfterWrite) {
+            closeQuietly(key);
+            return;
+        }
+        //a client that doesn't read its responses isn't read either
+        key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * handleRequest() answers the request at the position of the read
+     * buffer and moves the position after it.
+     * @param c
+     * @return boolean false if the buffer doesn't hold a whole request or
+     * the connection is closed after this response
+     */
+    private boolean handleRequest(Connection c)
+    {
+        ByteBuffer in = c.in;
+        byte[] bytes = in.array();
+        int start = in.position();
+        int headerEnd = -1;
+        for (int i = start + 3; i < in.limit(); i++)
+        {
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                headerEnd = i + 1;
+                break;
+            }
+        }
+        if (headerEnd == -1) {
+            if (in.remaining() >= MAX_HEADER_SIZE)
+                error(c, 431, "Request header is too large");
+            return false;
+        }
+
+        String[] lines = new String(bytes, start, headerEnd - start, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            error(c, 400, "Bad request line");
+            return false;
+        }
+        boolean http10 = "HTTP/1.0".equals(requestLine[2]);
+        boolean keepAlive = !http10;
+        int contentLength = 0;
+        for (int i = 1; i < lines.length; i++)
+        {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0)
+                continue;
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e)
+                {
+                    contentLength = -1;
+                }
+            }
+            else if (name.equalsIgnoreCase("Connection"))
+                keepAlive = http10 ? value.equalsIgnoreCase("keep-alive") : !value.equalsIgnoreCase("close");
+            else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                error(c, 501, "Transfer-Encoding is not supported, send a Content-Length");
+                return false;
+            }
+        }
+        if (contentLength < 0 || contentLength > MAX_BODY_SIZE) {
+            error(c, 413, "Request body is too large");
+            return false;
+        }
+        if (in.limit() - headerEnd < contentLength) {
+            //wait for the rest of the body, read() grows the buffer if it is full
+            return false;
+        }
+
+        String body = new String(bytes, headerEnd, contentLength, StandardCharsets.UTF_8);
+        in.position(headerEnd + contentLength);
+        c.closeAfterWrite = !keepAlive;
+        c.keepAliveHeader = http10 && keepAlive;
+        long startNanos = System.nanoTime();
+        dispatch(c, requestLine[0], requestLine[1], body);
+        GameMetrics.SERVER_REQUEST.record(System.nanoTime() - startNanos);
+        return !c.closeAfterWrite;
+    }
+
+    private void dispatch(Connection c, String method, String target, String body)
+    {
+        if (target.equals(SESSIONS)) {
+            if (method.equals("POST"))
+                createSession(c, body);
+            else
+                respond(c, 405, "Use POST to create a session");
+            return;
+        }
+        if (target.startsWith(SESSIONS + "/")) {
+            String path = target.substring(SESSIONS.length() + 1);
+            int slash = path.indexOf('/');
+            Long id = parseId(slash == -1 ? path : path.substring(0, slash));
+            Session session = id == null ? null : sessions.get(id);
+            if (session == null)
+                respond(c, 404, "Unknown session");
+            else if (slash == -1 && method.equals("DELETE")) {
+                sessions.remove(id);
+                respond(c, 204, "");
+            }
+            else if (slash != -1 && path.substring(slash).equals(MOVE) && method.equals("POST"))
+                move(c, id, session, body);
+            else
+                respond(c, 405, "Use POST " + SESSIONS + "/{id}" + MOVE + " or DELETE " + SESSIONS + "/{id}");
+            return;
+        }
+        if (target.equals("/metrics") && method.equals("GET")) {
+            StringWriter metrics = new StringWriter();
+            GameMetrics.print(new PrintWriter(metrics));
+            respond(c, 200, metrics.toString() + "sessions=" + sessions.size() + "\n");
+            return;
+        }
+        respond(c, 404, "Not found");
+    }
+
+    private void createSession(Connection c, String body)
+    {
+        if (sessions.size() >= maxSessions) {
+            respond(c, 503, "Too many sessions");
+            return;
+        }
+        GameSession game = index.newSession();
+        game.setBook(book);
+        for (String city : body.split("\n"))
+        {
+            city = index.getNormalizer().normalize(city.trim());
+            if (!city.isEmpty() && !game.removeCity(city)) {
+                respond(c, 400, "City is not valid or was previously used: " + city);
+                return;
+            }
+        }
+        long id = nextSessionId.incrementAndGet();
+        sessions.put(id, new Session(game));
+        respond(c, 201, String.valueOf(id));
+    }
+
+    private void move(Connection c, long id, Session session, String city)
+    {
+        String response;
+        //two connections may play the same session, a GameSession isn't thread safe
+        synchronized (session) {
+            session.lastUsed = System.currentTimeMillis();
+            long start = System.nanoTime();
+            response = session.game.nextMove(city.trim());
+            GameMetrics.NEXT_MOVE.record(System.nanoTime() - start);
+        }
+        if (response.startsWith("Winner") || response.startsWith("Loser"))
+            sessions.remove(id);
+        respond(c, 200, response);
+    }
+
+    private void expireSessions()
+    {
+        long now = System.currentTimeMillis();
+        if (sessionTimeoutMillis <= 0 || now - lastExpiry < 1000)
+            return;
+        lastExpiry = now;
+        int before = sessions.size();
+        sessions.values().removeIf(session -> session.lastUsed < now - sessionTimeoutMillis);
+        if (sessions.size() < before)
+            GameLog.info("GameServer.expireSessions()::Dropped "+(before - sessions.size())+" idle sessions");
+    }
+
+    private static Long parseId(String id)
+    {
+        try {
+            return Long.valueOf(id);
+        } catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private void error(Connection c, int status, String message)
+    {
+        c.closeAfterWrite = true;
+        c.keepAliveHeader = false;
+        respond(c, status, message);
+    }
+
+    private void respond(Connection c, int status, String body)
+    {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        if (status != 204)
+            sb.append("Content-Type: text/plain; charset=UTF-8\r\nContent-Length: ").append(content.length).append("\r\n");
+        if (c.closeAfterWrite)
+            sb.append("Connection: close\r\n");
+        else if (c.keepAliveHeader)
+            sb.append("Connection: keep-alive\r\n");
+        sb.append("\r\n");
+        byte[] head = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        int size = head.length + content.length;
+        if (c.out.remaining() < size)
+            c.out = grow(c.out, Math.max(c.out.capacity() * 2, c.out.position() + size));
+        c.out.put(head).put(content);
+    }
+
+    private static String reason(int status)
+    {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Error";
+        }
+    }
+
+    //copies a buffer in write mode, i.e. position at the end of its data
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity)
+    {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static void closeQuietly(SelectionKey key)
+    {
+        key.cancel();
+        closeQuietly(key.channel());
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        try {
+            closeable.close();
+        } catch (IOException e)
+        {
+            GameLog.debug("GameServer.closeQuietly()::"+e);
+        }
+    }
+}
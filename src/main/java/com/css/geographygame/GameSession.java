@@ -0,0 +1,337 @@
+package com.css.geographygame;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Game Session</h1>
+ * Mutable state of one game played on a shared, read only {@link CityIndex}.
+ * A session copies the count matrix and the pair arrays of the index when it
+ * starts, so sessions never share mutable state and can play concurrently on
+ * separate threads without any locks.  A single session is not thread safe.
+ * <p>
+ * Any city for a (first, last) letter pair can be picked in O(1) and a
+ * specific city can be removed with a swap in O(1).  The count of cities
+ * starting with each letter is kept in a bucket sorted array, so decrementing
+ * a count moves the letter to its new position in O(1) and the letters can
+ * always be walked in ascending order of available responses without
+ * calling Collections.sort.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class GameSession {
+
+    public static final String WINNER_NO_CITY = "Winner. Opponent has run out of cities. Better luck next time.";
+    public static final String WINNER_INVALID = "Winner. Opponents city is not valid or was previously used.";
+    public static final String LOSER_NO_RESPONSE = "Loser. No valid response found that would give my opponent a valid choice.";
+
+    private final CityIndex index;
+    private final int nbrOfLetters;
+
+    private final int[] remaining;        //number of cities left with this name (duplicates)
+    private final int[] slot;             //position of the name in pairIds
+    private final int[] pairIds;
+    private final int[] pairSize;         //number of distinct names left for the pair
+    final int[] pairCount;                //number of cities left for the pair
+
+    //count of cities by first letter kept in ascending order
+    final int[] firstCount;
+    private final int[] order;            //letters sorted ascending by firstCount
+    private final int[] orderPos;         //letter -> position in order
+    private final int[] countStart;       //countStart[c] = number of letters with firstCount < c
+
+    private int nbrOfCities;
+    //sum of the keys of the cities played, see OpeningBook
+    private long playedHash;
+    //number of cities played, the candidates the greedy choice rejected are not counted
+    private int plies;
+    //optional opening book consulted for the first moves
+    private OpeningBook book;
+    //optional strategy or lookahead search, the greedy choice is used when it isn't set
+    private Strategy strategy;
+    //optional exact solver once the cities left are under its threshold
+    private EndgameSolver endgame;
+
+    public GameSession(CityIndex _index)
+    {
+        index = _index;
+        nbrOfLetters = index.nbrOfLetters;
+        remaining = index.copyMultiplicity();
+        pairIds = index.copyPairIds();
+        pairCount = index.pairCount.clone();
+        firstCount = index.firstCount.clone();
+        nbrOfCities = index.nbrOfCities;
+
+        int nbrOfPairs = pairCount.length;
+        pairSize = new int[nbrOfPairs];
+        slot = new int[remaining.length];
+        for (int pair = 0; pair < nbrOfPairs; pair++)
+        {
+            pairSize[pair] = index.pairOffset(pair + 1) - index.pairOffset(pair);
+            for (int s = index.pairOffset(pair); s < index.pairOffset(pair + 1); s++)
+                slot[pairIds[s]] = s;
+        }
+
+        //sort letters ascending for least available responses
+        Integer[] sorted = new Integer[nbrOfLetters];
+        int maxCount = 0;
+        for (int l = 0; l < nbrOfLetters; l++) {
+            sorted[l] = l;
+            maxCount = Math.max(maxCount, firstCount[l]);
+        }
+        Arrays.sort(sorted, (a, b) -> firstCount[a] - firstCount[b]);
+        order = new int[nbrOfLetters];
+        orderPos = new int[nbrOfLetters];
+        countStart = new int[maxCount + 2];
+        for (int i = 0; i < nbrOfLetters; i++) {
+            order[i] = sorted[i];
+            orderPos[sorted[i]] = i;
+        }
+        for (int c = 0, i = 0; c < countStart.length; c++) {
+            while (i < nbrOfLetters && firstCount[order[i]] < c)
+                i++;
+            countStart[c] = i;
+        }
+    }
+
+    /**
+     * nextMove() uses the same rules as the trie based engine.  The opponents
+     * city is validated and removed, then we answer with a city starting with
+     * its last letter and ending with the letter that has the fewest cities
+     * left, as long as the opponent still has a valid response to it.
+     * @param opponentsCity
+     * @return String city name or a Winner/Loser message
+     */
+    public String nextMove(String opponentsCity)
+    {
+        if (opponentsCity == null || opponentsCity.isEmpty())
+            return WINNER_NO_CITY;
+        opponentsCity = index.normalizer.normalize(opponentsCity);
+
+        //check if opponents city is a valid city and hasn't been used
+        int opponentsId = lookupCity(opponentsCity);
+        if (opponentsId == -1)
+            return WINNER_INVALID;
+        removeCity(opponentsId);
+
+        int first = index.nameLast(opponentsId);
+        if (book != null && plies <= book.getPlies())
+        {
+            int id = book.lookup(positionKey(first));
+            if (id >= 0 && remaining[id] > 0 && index.nameFirst(id) == first) {
+                removeCity(id);
+                return index.names.name(id);
+            }
+        }
+        if (endgame != null && nbrOfCities <= endgame.getThreshold())
+        {
+            int last = endgame.bestMove(pairCount, firstCount, first);
+            if (last >= 0) {
+                int id = cityForPair(first, last);
+                removeCity(id);
+                return index.names.name(id);
+            }
+        }
+        if (strategy != null)
+        {
+            int last = strategy.bestMove(pairCount, firstCount, first);
+            if (last != -1) {
+                int id = cityForPair(first, last);
+                removeCity(id);
+                return index.names.name(id);
+            }
+        }
+        for (int i = countStart[1]; i < nbrOfLetters; i++)
+        {
+            //order is sorted in ascending order so the fewest possible responses come first
+            int last = order[i];
+            int pair = first * nbrOfLetters + last;
+            if (pairSize[pair] == 0)
+                continue;
+            int id = pairIds[index.pairOffset(pair)];
+
+            //need to check if a valid response exists to my response, which is
+            //any other city that starts with the last letter of my city
+            int responses = firstCount[last] - (first == last ? 1 : 0);
+            if (responses > 0) {
+                removeCity(id);
+                return index.names.name(id);
+            }
+            //not a move, so it doesn't change the position key of the book
+            dropCity(id);
+            GameMetrics.REJECTED_CANDIDATES.increment();
+        }
+
+        return LOSER_NO_RESPONSE;
+    }
+
+    /**
+     * lookupCity() returns the id of a city name that is still available
+     * or -1 if it doesn't exist or every city with that name was used.
+     * @param city lower case city name
+     * @return int
+     */
+    public int lookupCity(String city)
+    {
+        if (city == null || city.isEmpty())
+            return -1;
+        int id = index.names.find(city);
+        if (id == -1 || remaining[id] == 0)
+            return -1;
+        return id;
+    }
+
+    /**
+     * cityForPair() returns the name id of a city left for the letter pair
+     * or -1 if the pair has no cities left.
+     * @param first dense index of the first letter
+     * @param last dense index of the last letter
+     * @return int
+     */
+    int cityForPair(int first, int last)
+    {
+        int pair = first * nbrOfLetters + last;
+        return pairSize[pair] == 0 ? -1 : pairIds[index.pairOffset(pair)];
+    }
+
+    /**
+     * positionKey() hashes the cities played so far and the letter the
+     * player to move has to start with.
+     */
+    long positionKey(int first)
+    {
+        return playedHash ^ OpeningBook.letterKey(first);
+    }
+
+    public boolean removeCity(String city)
+    {
+        int id = lookupCity(city);
+        if (id == -1)
+            return false;
+        removeCity(id);
+        return true;
+    }
+
+    /**
+     * removeCity() removes a city that was played, it is counted in the
+     * position key and the plies of the book.
+     */
+    void removeCity(int id)
+    {
+        playedHash += OpeningBook.cityKey(id);
+        plies++;
+        dropCity(id);
+    }
+
+    //removes the city from the cities left without playing it
+    private void dropCity(int id)
+    {
+        int first = index.nameFirst(id);
+        int pair = first * nbrOfLetters + index.nameLast(id);
+        pairCount[pair]--;
+        if (--remaining[id] == 0) {
+            //swap the last name of the pair into the slot of the removed name
+            int lastSlot = index.pairOffset(pair) + --pairSize[pair];
+            int movedId = pairIds[lastSlot];
+            pairIds[slot[id]] = movedId;
+            slot[movedId] = slot[id];
+            pairIds[lastSlot] = id;
+            slot[id] = lastSlot;
+        }
+        decrementFirstCount(first);
+        nbrOfCities--;
+    }
+
+    private void decrementFirstCount(int letter)
+    {
+        //move the letter to the front of the run of letters with the same count
+        int count = firstCount[letter];
+        int frontPos = countStart[count];
+        int frontLetter = order[frontPos];
+        int pos = orderPos[letter];
+        order[frontPos] = letter;
+        orderPos[letter] = frontPos;
+        order[pos] = frontLetter;
+        orderPos[frontLetter] = pos;
+        countStart[count]++;
+        firstCount[letter] = count - 1;
+    }
+
+    /**
+     * setSearch() makes nextMove() pick its response with the search
+     * instead of the greedy choice.
+     * @param _search search created for this session or null for greedy
+     */
+    public void setSearch(MoveSearch _search)
+    {
+        strategy = _search;
+    }
+
+    /**
+     * setStrategy() makes nextMove() pick its response with the strategy
+     * instead of the greedy choice.
+     * @param _strategy strategy created for this session or null for greedy
+     */
+    public void setStrategy(Strategy _strategy)
+    {
+        strategy = _strategy;
+    }
+
+    public Strategy getStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     * setBook() makes nextMove() play the book move while the game is within
+     * the plies of the book.
+     * @param _book book built for the index of this session, may be shared
+     */
+    public void setBook(OpeningBook _book)
+    {
+        book = _book;
+    }
+
+    /**
+     * Returns the strategy if it is a search, for its statistics, else null.
+     */
+    public MoveSearch getSearch()
+    {
+        return strategy instanceof MoveSearch ? (MoveSearch) strategy : null;
+    }
+
+    /**
+     * setEndgame() makes nextMove() play the solved move once the number of
+     * cities left is at or below the threshold of the solver.
+     * @param _endgame solver, may be shared with other sessions on the same index
+     */
+    public void setEndgame(EndgameSolver _endgame)
+    {
+        endgame = _endgame;
+    }
+
+    public CityIndex getIndex()
+    {
+        return index;
+    }
+
+    public int getNbrOfCities()
+    {
+        return nbrOfCities;
+    }
+
+    /**
+     * Returns the number of cities left from the first to the last letter,
+     * both code points.
+     */
+    public int getPairCount(int first, int last)
+    {
+        int f = index.letterIndex(first);
+        int l = index.letterIndex(last);
+        if (f == -1 || l == -1)
+            return 0;
+        return pairCount[f * nbrOfLetters + l];
+    }
+}
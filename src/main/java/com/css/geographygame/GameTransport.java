@@ -0,0 +1,29 @@
+package com.css.geographygame;
+
+import java.io.Closeable;
+
+/**
+ * <h1>Game Transport</h1>
+ * Carries the moves between a player and the controller.  Every message is
+ * addressed by the file prefix of the sender (Player1, CTRLPlayer2...) and
+ * the index of the move, like the file names of the original file protocol.
+ * <ul>
+ * <li>file - the original data file and trigger file pair, polled every 100 ms</li>
+ * <li>watch - the same files, but the reader waits on a WatchService</li>
+ * <li>socket - framed messages over a loopback TCP connection to the controller</li>
+ * </ul>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public interface GameTransport extends Closeable {
+
+    String FILE = "file";
+    String WATCH = "watch";
+    String SOCKET = "socket";
+
+    void writeNext(String filePrefix, int index, String data) throws Exception;
+
+    String readNext(String filePrefix, int index) throws Exception;
+}
@@ -1,47 +1,29 @@
 package com.css.geographygame;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GeoGameController {
 
-    class CityNode
-    {
-        String name;
-        String country;
-        String subcountry;
-        int geonameid;
-        public CityNode(String _name, String _country, String _subcountry, int _geonameid)
-        {
-            name = _name;
-            country = _country;
-            subcountry = _subcountry;
-            geonameid = _geonameid;
-        }
-        public int hashCode()
-        {
-            return geonameid;
-        }
-        public boolean equals(GeographyGame.CityNode cn)
-        {
-            return (this.geonameid == cn.geonameid);
-        }
-    }
     public static Properties props;
     public static String fileName;
     public static String configFile;
     public static String gameDirectory;
     public static String playDirectory;
     public static int readTimeout;
+    //directory of the move journals, no journals are written when it isn't set
+    public static String journalDirectory;
 
     public static void main(String[] args)
     {
         try {
             if (args == null || args.length == 0) {
-                System.out.println("GeographyGame.main() expects a properties files as input.");
+                GameLog.error("GeoGameController.main() expects a properties files as input.");
             }
             else
                 configFile = args[0];
@@ -51,7 +33,7 @@ public class GeoGameController {
                 props = new Properties();
                 // load a properties file
                 props.load(input);
-                props.forEach((key, value) -> System.out.println("Key : " + key + ", Value : " + value));
+                props.forEach((key, value) -> GameLog.info("Key : " + key + ", Value : " + value));
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
@@ -60,15 +42,29 @@ public class GeoGameController {
             fileName = props.getProperty("geo.controller.datafile");
             playDirectory = gameDirectory + System.getProperty("file.separator") + "play";
             readTimeout = Integer.parseInt(props.getProperty("geo.controller.read.timeout"));
+            journalDirectory = props.getProperty("geo.controller.journal.directory");
+            shardFile = props.getProperty("geo.controller.shardfile");
+            GameLog.configure(props, "geo.controller.");
+            normalizer = NameNormalizer.fromProperties(props, "geo.controller.");
+            GameLog.watch(configFile, "geo.controller.");
+            GameMetrics.configure(props, "geo.controller.");
 
             File playDir = new File(playDirectory);
             if (!playDir.exists())
                 playDir.mkdir();
-            GeoGameController GGOps = new GeoGameController();
-            GGOps.loadData();
-            GGOps.printNumberOfCitiesInMap();
-            System.out.println("Size of CityMap = "+cityMap.size());
-            GGOps.play();
+            loadData();
+            printNumberOfCitiesInMap();
+            GameLog.info("Size of CityMap = "+(shardedIndex != null ? shardedIndex.getNbrOfNames() : cityIndex.getNames().size()));
+
+            int matches = Integer.parseInt(props.getProperty("geo.controller.matches", "1"));
+            if (matches > 1)
+                playTournament(matches);
+            else {
+                GeoGameController GGOps = new GeoGameController("", playDirectory, 0);
+                GGOps.transport = GGOps.createTransport();
+                GGOps.play();
+                GGOps.transport.close();
+            }
         } catch (Exception e)
         {
             e.printStackTrace();
@@ -103,142 +99,220 @@ public class GeoGameController {
                 return rtnArr;
             } catch (Exception e)
             {
-                System.out.println("parseLine()::Error processing line "+line);
+                GameLog.warn("parseLine()::Error processing line "+line);
             }
         }
 
         return line.split(",");
     }
-    public static HashMap<String, LinkedList<CityNode>> cityMap = new HashMap<>();
-    public static HashMap<String, Integer> cityMapByFirstLetter = new HashMap<>();
-    public void loadData()
+    //normalizer of the names of the shared base dataset
+    public static NameNormalizer normalizer = new NameNormalizer();
+    //shared base dataset, read only once loadData() is done
+    public static CityIndex cityIndex;
+    //sharded index used instead of cityIndex for large gazetteers when geo.controller.shardfile is set
+    public static String shardFile;
+    public static ShardedCityIndex shardedIndex;
+    public static void loadData()
     {
         try {
-            BufferedReader bf = new BufferedReader(new FileReader(new File(fileName)));
-            String sline = bf.readLine();
-            sline = bf.readLine();
-            while (sline != null && !sline.isEmpty())
-            {
-                //remove case sensitivity which can cause creation of more objects than necessary
-                String[] dataArr = parseLine(sline.toLowerCase());
-
-                CityNode cn = new CityNode(dataArr[0],dataArr[1],dataArr[2],Integer.parseInt(dataArr[3]));
-                if (cn.name != null && !cn.name.isEmpty()) {
-                    LinkedList<CityNode> ll = null;
-                    if (cityMap.containsKey(cn.name)) {
-                        ll = cityMap.get(cn.name);
-                        ll.add(cn);
-                    }
-                    else
-                    {
-                        ll = new LinkedList<>();
-                        ll.add(cn);
-                        cityMap.put(cn.name,ll);
-                    }
-                    /**********/
-                    String firstLetter = cn.name.substring(0,1);
-                    Integer cityCount = cityMapByFirstLetter.get(firstLetter);
-                    if (cityCount == null)
-                        cityCount = new Integer(0);
-                    cityCount = new Integer(cityCount.intValue() + 1);
-                    cityMapByFirstLetter.put(firstLetter, cityCount);
-                    /***** end *****/
-                }
-                sline = bf.readLine();
-            } //end while
+            if (shardFile != null && !shardFile.isEmpty())
+                shardedIndex = ShardedCityIndex.load(shardFile, fileName, normalizer);
+            else
+                cityIndex = CityIndex.fromCsv(fileName, normalizer);
         } catch (Exception ex)
         {
             ex.printStackTrace();
         }
     } //end loadData()
 
-    public void printNumberOfCitiesInMap()
+    public static void printNumberOfCitiesInMap()
     {
-        int count = 0;
-        Set<String> keys = cityMap.keySet();
-        for (String key : keys)
-        {
-            LinkedList<CityNode> cities = cityMap.get(key);
-            if (cities != null)
-                count += cities.size();
-        }
-        System.out.println("printNumberOfCitiesInMap():: Nbr of cities = "+count);
+        GameLog.info("printNumberOfCitiesInMap():: Nbr of cities = "+(shardedIndex != null ? shardedIndex.getNbrOfCities() : cityIndex.getNbrOfCities()));
     }
     public int playerOneIndex = 1;
     public int playerTwoIndex = 1;
 
+    //validation state of this match on top of the shared base dataset
+    public String matchName;
+    public String logPrefix;
+    public String matchDirectory;
+    public int portOffset;
+    public String result;
+    public NameCountTable usedCities = new NameCountTable(256);
+    public int[] cityCountByFirstLetter;
+    public GameTransport transport;
+    public MoveJournal journal;
+    //name id of the city accepted by the last call to checkAndRemoveValidCity()
+    public int lastValidId = -1;
+    //index this match validates against, the shared base dataset unless one is given
+    private final CityIndex matchIndex;
+    private final ShardedCityIndex matchShards;
+    private final NameNormalizer matchNormalizer;
 
-    public static void writeNext(String filePrefix, int index, String data) throws Exception
+    public GeoGameController(String _matchName, String _matchDirectory, int _portOffset)
     {
-        String nextFile = playDirectory + System.getProperty("file.separator") + filePrefix + "_" + index + ".txt";
-        String nextTrigger = playDirectory + System.getProperty("file.separator") + filePrefix + "_Trigger_" + index + ".txt";
-        BufferedWriter bfWriter = new BufferedWriter(new FileWriter(new File(nextFile)));
-        bfWriter.write(data);
-        bfWriter.flush();
-        bfWriter.close();
-        BufferedWriter bfTriggerWriter = new BufferedWriter(new FileWriter(new File(nextTrigger)));
-        bfTriggerWriter.write("TAG! You're it.");
-        bfTriggerWriter.flush();
-        bfTriggerWriter.close();
+        this(_matchName, _matchDirectory, _portOffset, cityIndex, shardedIndex);
     }
-    public static String readNext(String filePrefix, int index) throws Exception
+
+    /**
+     * Creates a match that validates against the index, e.g. to replay
+     * journals offline without touching the shared base dataset.
+     */
+    public GeoGameController(String _matchName, String _matchDirectory, int _portOffset, CityIndex _index)
     {
-        int count = 0;
-        String responseTrigger = playDirectory + System.getProperty("file.separator") + filePrefix + "_TriggerRSP_" + index + ".txt";
-        File trigFile = new File(responseTrigger);
-        //wait three seconds for a response
-        while (count < readTimeout)
+        this(_matchName, _matchDirectory, _portOffset, _index, null);
+    }
+
+    private GeoGameController(String _matchName, String _matchDirectory, int _portOffset, CityIndex _index, ShardedCityIndex _shards)
+    {
+        matchIndex = _index;
+        matchShards = _shards;
+        matchNormalizer = matchShards != null ? matchShards.getNormalizer() : matchIndex.getNormalizer();
+        matchName = _matchName;
+        logPrefix = _matchName.isEmpty() ? "" : "[" + _matchName + "] ";
+        matchDirectory = _matchDirectory;
+        portOffset = _portOffset;
+        //cheap copy of the counts by letter, the shared index is never modified and usedCities counts the played names
+        cityCountByFirstLetter = matchShards != null ? matchShards.firstCount.clone() : matchIndex.firstCount.clone();
+    }
+
+    /**
+     * playTournament() hosts many independent matches in this process, one
+     * thread per match.  The players of a match use match_1, match_2... under
+     * the game directory as their geo.player.gameDirectory, or connect to
+     * geo.controller.transport.port plus the match number minus one.  Every
+     * match validates against its own state on top of the shared city map.
+     * @param matches number of matches
+     * @throws Exception
+     */
+    public static void playTournament(int matches) throws Exception
+    {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = newMatchExecutor();
+        List<GeoGameController> games = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i <= matches; i++)
         {
-            if (trigFile.exists())
-                break;
-            else
-                Thread.sleep(100);
-            count++;
+            GeoGameController match = new GeoGameController("match_" + i,
+                    gameDirectory + File.separator + "match_" + i + File.separator + "play", i - 1);
+            games.add(match);
+            futures.add(executor.submit(() -> {
+                try {
+                    match.transport = match.createTransport();
+                    match.play();
+                    match.transport.close();
+                } catch (Exception e)
+                {
+                    match.result = "ERROR " + e;
+                    e.printStackTrace();
+                }
+            }));
         }
-        String nextFile = playDirectory + System.getProperty("file.separator") + filePrefix + "_" + index + ".txt";
-        BufferedReader bfReader = new BufferedReader(new FileReader(new File(nextFile)));
-        String response = bfReader.readLine();
-        bfReader.close();
-        return response;
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+
+        for (GeoGameController match : games)
+            GameLog.info(match.matchName + " " + match.result);
+        GameLog.info("playTournament():: " + matches + " matches in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Runs every match on its own virtual thread when the JVM supports them
+     * (Java 21+) and falls back to one platform thread per match.
+     */
+    public static ExecutorService newMatchExecutor()
+    {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void writeNext(String filePrefix, int index, String data) throws Exception
+    {
+        long start = System.nanoTime();
+        transport.writeNext(filePrefix, index, data);
+        GameMetrics.WRITE_NEXT.record(System.nanoTime() - start);
+    }
+    public String readNext(String filePrefix, int index) throws Exception
+    {
+        long start = System.nanoTime();
+        String data = transport.readNext(filePrefix, index);
+        GameMetrics.READ_NEXT.record(System.nanoTime() - start);
+        return data;
+    }
+
+    /**
+     * createTransport() opens the transport selected with geo.controller.transport,
+     * file (default), watch or socket.  The socket transport waits for both players.
+     * @return GameTransport
+     * @throws Exception
+     */
+    public GameTransport createTransport() throws Exception
+    {
+        String type = props.getProperty("geo.controller.transport", GameTransport.FILE);
+        if (GameTransport.WATCH.equals(type))
+            return new WatchServiceTransport(matchDirectory, true, readTimeout);
+        if (GameTransport.SOCKET.equals(type))
+            return SocketTransport.listen(Integer.parseInt(props.getProperty("geo.controller.transport.port")) + portOffset, 2, readTimeout);
+        return new FileTransport(matchDirectory, true, readTimeout);
     }
     public void play()
     {
         try
         {
             String nextCity = "XXXXXXX";
+            openJournal();
 
             while (nextCity != null && !nextCity.isEmpty())
             {
-                Thread.sleep(10);
                 nextCity = readNext("Player1", playerOneIndex);
-                nextCity = nextCity.toLowerCase();
-                System.out.println("Player1 response is " + nextCity);
+                nextCity = matchNormalizer.normalize(nextCity);
+                GameLog.info(logPrefix + "Player1 response is " + nextCity);
                 //check if valid city
-                if (!checkAndRemoveValidCity(nextCity))
+                long start = System.nanoTime();
+                boolean valid = checkAndRemoveValidCity(nextCity);
+                boolean hasResponse = valid && checkIfCityHasValidResponse(nextCity);
+                GameMetrics.VALIDATE.record(System.nanoTime() - start);
+                if (valid)
+                    appendJournal();
+                if (!valid)
                 {
-                    System.out.println("Player1 provided invalid response. GAME OVER!");
+                    result = "Player1 provided invalid response. GAME OVER!";
+                    GameLog.info(logPrefix + result);
                     break;
                 }
-                if (!checkIfCityHasValidResponse(nextCity))
+                if (!hasResponse)
                 {
-                    System.out.println("Player2 provided city with no valid response. GAME OVER!");
+                    result = "Player2 provided city with no valid response. GAME OVER!";
+                    GameLog.info(logPrefix + result);
                     break;
                 }
                 writeNext("CTRLPlayer2", playerTwoIndex, nextCity);
 
-                Thread.sleep(10);
-
                 nextCity = readNext("Player2", playerTwoIndex);
-                System.out.println("Player2 response is " + nextCity);
+                nextCity = matchNormalizer.normalize(nextCity);
+                GameLog.info(logPrefix + "Player2 response is " + nextCity);
                 //check if valid city
-                if (!checkAndRemoveValidCity(nextCity))
+                start = System.nanoTime();
+                valid = checkAndRemoveValidCity(nextCity);
+                hasResponse = valid && checkIfCityHasValidResponse(nextCity);
+                GameMetrics.VALIDATE.record(System.nanoTime() - start);
+                if (valid)
+                    appendJournal();
+                if (!valid)
                 {
-                    System.out.println("Player2 provided invalid response. GAME OVER!");
+                    result = "Player2 provided invalid response. GAME OVER!";
+                    GameLog.info(logPrefix + result);
                     break;
                 }
-                if (!checkIfCityHasValidResponse(nextCity))
+                if (!hasResponse)
                 {
-                    System.out.println("Player2 provided city with no valid response. GAME OVER!");
+                    result = "Player2 provided city with no valid response. GAME OVER!";
+                    GameLog.info(logPrefix + result);
                     break;
                 }
                 playerOneIndex++;
@@ -247,26 +321,80 @@ public class GeoGameController {
             }
         }
         catch (Exception e)
+        {
+            result = "ERROR " + e;
+            e.printStackTrace();
+        }
+        finally
+        {
+            closeJournal();
+        }
+    }
+
+    /**
+     * openJournal() starts the move journal of this match if
+     * geo.controller.journal.directory is set.
+     */
+    public void openJournal()
+    {
+        if (journalDirectory == null || journalDirectory.isEmpty())
+            return;
+        if (matchShards != null) {
+            GameLog.warn(logPrefix + "openJournal()::Journals are not written for a sharded index");
+            return;
+        }
+        try {
+            File dir = new File(journalDirectory);
+            if (!dir.exists())
+                dir.mkdirs();
+            String name = (matchName.isEmpty() ? "game" : matchName) + "_" + System.currentTimeMillis() + MoveJournal.SUFFIX;
+            journal = new MoveJournal(new File(dir, name), matchIndex);
+        } catch (IOException e)
         {
             e.printStackTrace();
         }
     }
+
+    public void appendJournal()
+    {
+        if (journal == null)
+            return;
+        try {
+            journal.append(lastValidId);
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            closeJournal();
+        }
+    }
+
+    public void closeJournal()
+    {
+        if (journal == null)
+            return;
+        try {
+            journal.close(result);
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        journal = null;
+    }
+
     public boolean checkAndRemoveValidCity(String city)
     {
-        LinkedList<CityNode> cities = cityMap.get(city);
-        if (cities == null)
+        if (city == null)
+            return false;
+        int id = matchShards != null ? matchShards.find(city) : matchIndex.names.find(city);
+        if (id == -1)
             return false;
 
-        for (CityNode cn : cities)
-        {
-            if (cn.name.equals(city))
-            {
-                //remove city if it exists
-                cities.remove(cn);
-                return true;
-            }
+        //the shared index is never modified, this match counts the cities it used
+        if (usedCities.incrementBelow(id, matchShards != null ? matchShards.multiplicity(id) : matchIndex.multiplicity(id))) {
+            lastValidId = id;
+            return true;
         }
-        System.out.println("ERROR::Check why code is hitting this line!!!!!!!!!!!!!!!!");
+        GameLog.error("Check why code is hitting this line!!!!!!!!!!!!!!!!");
         return false;
     }
 
@@ -274,19 +402,11 @@ public class GeoGameController {
     {
         if (city == null || city.isEmpty())
             return false;
-        String lastLetter = city.substring(city.length()-1);
-
-        Integer cityCount = cityMapByFirstLetter.get(lastLetter);
-        if (cityCount == null)
+        int lastLetter = matchShards != null ? matchShards.letterIndex(NameNormalizer.lastLetter(city))
+                : matchIndex.letterIndex(NameNormalizer.lastLetter(city));
+        if (lastLetter == -1 || cityCountByFirstLetter[lastLetter] == 0)
             return false;
-        else if (cityCount.intValue() == 0) {
-            cityMapByFirstLetter.remove(lastLetter);
-            return false;
-        }
-        else {
-            cityCount = new Integer(cityCount.intValue()-1);
-            cityMapByFirstLetter.put(lastLetter,cityCount);
-            return true;
-        }
+        cityCountByFirstLetter[lastLetter]--;
+        return true;
     }
 }
@@ -1,6 +1,8 @@
 package com.css.geographygame;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
 
 /**
@@ -44,6 +46,19 @@ import java.util.*;
  * we need to keep track of the count of cities that start with a letter and
  * sort that list to efficiently look up the next city with the fewest
  * responses.
+ * <p>
+ * The default engine plays a {@link GameSession} on a {@link CityIndex} which
+ * keeps the same state as a first-letter/last-letter count matrix so a move
+ * doesn't have to re-sort any lists.  Set geo.player.engine=trie to play with
+ * the Trie structures, or geo.player.engine=sharded to play on a
+ * {@link ShardedCityIndex} that keeps the names off heap for gazetteers
+ * with millions of cities.
+ * </p>
+ * <p>
+ * All game state is held by the instance, so one JVM can run any number of
+ * players.  Players created with the same CityIndex share the read only
+ * dataset and only copy the counts their own session modifies.
+ * </p>
  *
  * @author  Craig Schwegel
  * @version 1.0
@@ -51,54 +66,47 @@ import java.util.*;
  */
 public class GeographyGame {
 
-    class CityNode
+    static class CityNode
     {
         String name;
-        String country;
-        String subcountry;
         int geonameid;
-        public CityNode(String _name, String _country, String _subcountry, int _geonameid)
+        //position in cityList and id of the city in the CityTrie
+        int cityId = -1;
+        public CityNode(String _name, int _geonameid)
         {
             name = _name;
-            country = _country;
-            subcountry = _subcountry;
             geonameid = _geonameid;
         }
+        @Override
         public int hashCode()
         {
             return geonameid;
         }
-        public boolean equals(CityNode cn)
-        {
-            return (this.geonameid == cn.geonameid);
-        }
-    }
-    class TrieNode
-    {
-        String character;
-        boolean isCity;
-        HashMap<String, TrieNode> childrenMap;
-        List<CityNode> cities;
-        public TrieNode(String _char)
+        @Override
+        public boolean equals(Object o)
         {
-            character = _char;
-            isCity = false;
-            childrenMap = new HashMap<>();
-            cities = new LinkedList<>();
+            //duplicates share the name, the geonameid tells them apart
+            return o instanceof CityNode && this.geonameid == ((CityNode) o).geonameid;
         }
     }
     class NodeHead implements Comparable<NodeHead>
     {
-        String key;
+        //last letter of the cities as a code point
+        int letter;
         int nbrOfCities;
-        HashMap<String, TrieNode> childrenMap;
-        TrieNode head;
-        public NodeHead(String _key)
+        //trie node whose children are keyed by the first letter of the city name
+        int root;
+        public NodeHead(int _letter)
         {
-            key = _key;
+            letter = _letter;
             nbrOfCities = 0;
-            head = new TrieNode(_key);
-            childrenMap = new HashMap<>();
+            root = cityTrie.newNode((char) _letter);
+        }
+        public NodeHead(int _letter, int _root, int _nbrOfCities)
+        {
+            letter = _letter;
+            nbrOfCities = _nbrOfCities;
+            root = _root;
         }
 
         @Override
@@ -109,54 +117,126 @@ public class GeographyGame {
     }
     class Letter implements Comparable<Letter>
     {
-        String key;
+        //first letter of the cities as a code point
+        int letter;
         int nbrOfCities;
-        public Letter(String _key)
+        public Letter(int _letter)
         {
-            key = _key;
+            letter = _letter;
         }
         @Override
         public int compareTo(Letter o) {
             //Ascending order will give us the least number of responses available
             return this.nbrOfCities - o.nbrOfCities;
         }
+        @Override
         public int hashCode()
         {
-            return key.hashCode();
+            return letter;
         }
-        public boolean equals(Letter letter)
+        @Override
+        public boolean equals(Object o)
         {
-            return (this.key == letter.key);
+            return o instanceof Letter && this.letter == ((Letter) o).letter;
         }
     }
-    public static Properties props;
-    public static String configFile;
-    public static HashMap<String, NodeHead> headNodeMap = new HashMap<>();
-    public static ArrayList<NodeHead> headNodeList = new ArrayList<>();
-    public static ArrayList<Letter> firstLetterList = new ArrayList<>();
-    public static HashMap<String, Letter> firstLetterMap = new HashMap<>();
-    private static final boolean DebugFlag = true;
+    public Properties props;
+    //NodeHeads and first letter counts by letter symbol, see normalizer.symbol()
+    public NodeHead[] headNodeBySymbol = new NodeHead[64];
+    public ArrayList<NodeHead> headNodeList = new ArrayList<>();
+    public ArrayList<Letter> firstLetterList = new ArrayList<>();
+    public Letter[] firstLetterBySymbol = new Letter[64];
+    //normalizer of the names of this player, every structure it loads keeps it
+    public NameNormalizer normalizer = new NameNormalizer();
+    public CityTrie cityTrie = new CityTrie(normalizer);
+    //city counts of the trie by letter pair as bitsets, built once the cities are loaded
+    public LetterBitsets letterBitsets;
+    //scratch bitsets of nextMove()
+    private long[] legalBits;
+    private long[] deadBits;
+    public ArrayList<CityNode> cityList = new ArrayList<>();
+    //set when the Trie structures are read from an index snapshot
+    private NameTable snapshotNames;
+    private IntBuffer snapshotCities;       //geonameid and name id per city, left in the mapping
+    //trie nodes walked since the last move, added to GameMetrics once per move
+    private long trieNodesVisited;
+    public static final String ENGINE_GRAPH = "graph";
+    public static final String ENGINE_TRIE = "trie";
+    public static final String ENGINE_SHARDED = "sharded";
+    public String engine = ENGINE_GRAPH;
+    //read only dataset, may be shared with other players
+    public CityIndex cityIndex;
+    //state of the game played by this player
+    public GameSession session;
+    //time budget of the lookahead search per move, 0 for the greedy choice
+    public long searchMillis = 0;
+    //threads of the lookahead search
+    public int searchThreads = 1;
+    //strategy of the lookahead, see Strategy
+    public static final String SEARCH_ALPHABETA = Strategy.ALPHABETA;
+    public static final String SEARCH_MCTS = Strategy.MCTS;
+    public String searchStrategy = SEARCH_ALPHABETA;
+    //number of cities left at which the endgame solver takes over, 0 to never solve
+    public int endgameCities = 0;
+    public String tablebaseFile;
+    public EndgameSolver endgame;
+    //opening book of the graph engine, no book when the file isn't set
+    public String bookFile;
+    public OpeningBook book;
+    //off heap index of the sharded engine, compiled from the cities file if it doesn't exist
+    public String shardFile;
+    public ShardedCityIndex shardedIndex;
+    public ShardedSession shardedSession;
+
+    public GeographyGame()
+    {
+    }
+
+    /**
+     * Creates a player that plays on an index that is already loaded,
+     * e.g. to run several players in one JVM without loading the data again.
+     * @param _cityIndex
+     */
+    public GeographyGame(CityIndex _cityIndex)
+    {
+        setNormalizer(_cityIndex.getNormalizer());
+        cityIndex = _cityIndex;
+    }
+
+    /**
+     * setNormalizer() sets the normalizer of the names, it has to be called
+     * before the cities are loaded since the Trie is replaced.
+     * @param _normalizer
+     */
+    public void setNormalizer(NameNormalizer _normalizer)
+    {
+        normalizer = _normalizer;
+        cityTrie = new CityTrie(normalizer);
+    }
+
     public static void main(String[] args)
     {
         try {
+            String configFile = null;
             if (args == null || args.length == 0) {
-                System.out.println("GeographyGame.main() expects a properties file as input.");
+                GameLog.error("GeographyGame.main() expects a properties file as input.");
             }
             else
                 configFile = args[0];
 
             //load properties file
+            Properties props = new Properties();
             try (InputStream input = new FileInputStream(configFile)) {
-                props = new Properties();
                 // load a properties file
                 props.load(input);
-                props.forEach((key, value) -> System.out.println("Key : " + key + ", Value : " + value));
+                props.forEach((key, value) -> GameLog.info("Key : " + key + ", Value : " + value));
             } catch (IOException ex) {
                 ex.printStackTrace();
             }
 
-            init();
             GeographyGame gg = new GeographyGame();
+            gg.init(props);
+            GameLog.watch(configFile, "geo.player.");
             gg.loadData();
             gg.play();
         } catch (Exception e)
@@ -165,18 +245,23 @@ public class GeographyGame {
         }
     }
 
+    /**
+     * playInternal() plays one game of this player against itself from the
+     * start city, or "mazem" if there is none.  {@link SelfPlayArena} plays
+     * many games between two strategies.
+     */
     public void playInternal()
     {
         try {
-            String nextCity = "mazem";
-            System.out.println("First Move::" + nextCity);
+            String nextCity = startCity != null && !startCity.isEmpty() ? startCity : "mazem";
+            GameLog.info("First Move::" + nextCity);
             while (true) {
                 if (nextCity.startsWith("Loser") || nextCity.startsWith("Winner"))
                     break;
                 nextCity = nextMove(nextCity);
-                System.out.println("Move::" + nextCity);
+                GameLog.info("Move::" + nextCity);
             }
-            System.out.println(nextCity);
+            GameLog.info(nextCity);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -223,7 +308,7 @@ public class GeographyGame {
                 return rtnArr;
             } catch (Exception e)
             {
-                System.out.println("parseLine()::Error processing line "+line);
+                GameLog.warn("parseLine()::Error processing line "+line);
             }
         }
 
@@ -232,96 +317,310 @@ public class GeographyGame {
 
     public void loadData()
     {
-        try {
-            BufferedReader bf = new BufferedReader(new FileReader(new File(fileName)));
-            String sline = bf.readLine();
-            if (DebugFlag)
-                System.out.println("DEBUG::loadData()::Header = "+sline);
-            sline = bf.readLine();
-            while (sline != null && !sline.isEmpty())
+        if (ENGINE_SHARDED.equals(engine)) {
+            try {
+                long start = System.currentTimeMillis();
+                shardedIndex = ShardedCityIndex.load(shardFile, fileName, normalizer);
+                shardedSession = shardedIndex.newSession();
+                GameLog.info("loadData()::Opened "+shardedIndex.getNbrOfCities()+" cities in "+shardedIndex.getNbrOfPairs()
+                        +" shards in "+(System.currentTimeMillis()-start)+" ms");
+            } catch (IOException ex)
             {
-                //remove case sensitivity which can cause creation of more objects than necessary
-                String[] dataArr = parseLine(sline.toLowerCase());
-
-                CityNode cn = new CityNode(dataArr[0],dataArr[1],dataArr[2],Integer.parseInt(dataArr[3]));
-                if (DebugFlag)
-                    System.out.println("DEBUG::loadData()::Processing city name "+cn.name);
-                if (cn.name != null && !cn.name.isEmpty()) {
-                    //Partition trie structures by last letter in city name
-                    String key = cn.name.substring(cn.name.length() - 1);
-                    NodeHead nh = headNodeMap.get(key);
-                    if (nh == null) {
-                        nh = new NodeHead(key);
-                        headNodeList.add(nh);
-                        headNodeMap.put(key,nh);
-                    }
-                    TrieNode tn = nh.childrenMap.get(cn.name.substring(0,1));
-                    if (tn == null) {
-                        tn = new TrieNode(cn.name.substring(0, 1));
-                        nh.childrenMap.put(cn.name.substring(0, 1), tn);
-                    }
-                    if (cn.name.length() == 1)
-                    {
-                        tn.cities.add(cn);
-                        tn.isCity = true;
-                    }
-                    else
-                        insertNode(tn,cn,cn.name.substring(1));
-                    nh.nbrOfCities++;
-
-                    //Store count based on first letter of city name
-                    Letter letter = firstLetterMap.get(cn.name.substring(0,1));
-                    if (letter == null) {
-                        letter = new Letter(cn.name.substring(0, 1));
-                        firstLetterList.add(letter);
-                    }
-                    letter.nbrOfCities++;
-                    firstLetterMap.put(cn.name.substring(0,1),letter);
-                }
-                sline = bf.readLine();
-            } //end while
+                ex.printStackTrace();
+            }
+            return;
+        }
+        if (ENGINE_GRAPH.equals(engine) && cityIndex != null) {
+            startSession();
+            return;
+        }
+        if (indexFile != null && !indexFile.isEmpty()) {
+            long start = System.currentTimeMillis();
+            if (CityIndexSnapshot.load(indexFile, this)) {
+                GameLog.info("loadData()::Loaded index "+indexFile+" in "+(System.currentTimeMillis()-start)+" ms");
+                if (ENGINE_GRAPH.equals(engine))
+                    startSession();
+                else
+                    buildLetterBitsets();
+                return;
+            }
+            GameLog.warn("loadData()::Falling back to "+fileName);
+        }
+        CityIndex.Builder builder = new CityIndex.Builder(normalizer);
+        try {
+            long start = System.currentTimeMillis();
+            int nbrOfCities = CityCsvLoader.load(fileName, normalizer, (name, geonameid) -> {
+                if (ENGINE_GRAPH.equals(engine))
+                    builder.addCity(name);
+                else
+                    addCity(new CityNode(name, geonameid));
+            });
+            GameLog.info("loadData()::Loaded "+nbrOfCities+" cities in "+(System.currentTimeMillis()-start)+" ms");
         } catch (Exception ex)
         {
             ex.printStackTrace();
         }
 
+        if (ENGINE_GRAPH.equals(engine)) {
+            cityIndex = builder.build();
+            startSession();
+        }
+        sortLists();
+        if (!ENGINE_GRAPH.equals(engine))
+            buildLetterBitsets();
+    }
+
+    /**
+     * buildLetterBitsets() counts the cities left under every NodeHead by
+     * first letter, the trie keeps the count of every subtree.
+     */
+    public void buildLetterBitsets()
+    {
+        letterBitsets = new LetterBitsets(Math.max(headNodeBySymbol.length, firstLetterBySymbol.length));
+        legalBits = new long[letterBitsets.getWords()];
+        deadBits = new long[letterBitsets.getWords()];
+        for (NodeHead nh : headNodeList)
+        {
+            for (Letter letter : firstLetterList)
+            {
+                int tn = letterNode(nh.root, letter.letter);
+                if (tn != CityTrie.NONE)
+                    letterBitsets.add(normalizer.symbol(letter.letter), normalizer.symbol(nh.letter), cityTrie.liveCities(tn));
+            }
+        }
+    }
+
+    private void startSession()
+    {
+        session = cityIndex.newSession();
+        if (bookFile != null && !bookFile.isEmpty()) {
+            if (book == null) {
+                book = OpeningBook.load(bookFile, cityIndex);
+                if (book != null)
+                    GameLog.info("startSession()::Loaded opening book "+bookFile+" up to "+book.getPlies()+" plies");
+            }
+            session.setBook(book);
+        }
+        if (searchMillis > 0)
+            session.setStrategy(Strategy.create(searchStrategy, cityIndex, searchMillis, searchThreads));
+        if (endgameCities > 0) {
+            if (endgame == null) {
+                endgame = new EndgameSolver(cityIndex, endgameCities);
+                if (endgame.load(tablebaseFile))
+                    GameLog.info("startSession()::Loaded "+endgame.size()+" endgame positions from "+tablebaseFile);
+            }
+            session.setEndgame(endgame);
+        }
+    }
+
+    public void sortLists()
+    {
         //sort ascending for least available responses
         Collections.sort(headNodeList);
         Collections.sort(firstLetterList);
     }
 
-    public void insertNode(TrieNode curNode, CityNode cn, String parseName)
+    /**
+     * writeTrieSnapshot() writes the Trie structures for the index snapshot:
+     * geonameid and name id per city, the NodeHeads and first letter counts
+     * in their sorted order and the CityTrie arrays.
+     * @param out
+     * @param names name table of the snapshot
+     * @throws IOException
+     */
+    public void writeTrieSnapshot(DataOutputStream out, NameTable names) throws IOException
     {
-        if (DebugFlag)
-            System.out.println("DEBUG::insertNode()::Processing city name "+parseName);
-        if (parseName == null || parseName.isEmpty())
-            return;
+        out.writeInt(cityList.size());
+        for (CityNode cn : cityList) {
+            out.writeInt(cn.geonameid);
+            out.writeInt(names.find(cn.name));
+        }
+        out.writeInt(headNodeList.size());
+        for (NodeHead nh : headNodeList) {
+            out.writeInt(nh.letter);
+            out.writeInt(nh.root);
+            out.writeInt(nh.nbrOfCities);
+        }
+        out.writeInt(firstLetterList.size());
+        for (Letter letter : firstLetterList) {
+            out.writeInt(letter.letter);
+            out.writeInt(letter.nbrOfCities);
+        }
+        cityTrie.writeSnapshot(out, cityList.size());
+    }
 
-        String key = parseName.substring(0,1);
-        TrieNode tn = curNode.childrenMap.get(key);
-        if (tn == null) {
-            tn = new TrieNode(key);
-            curNode.childrenMap.put(key, tn);
+    public void readTrieSnapshot(ByteBuffer buf, NameTable names)
+    {
+        int nbrOfCities = buf.getInt();
+        snapshotCities = CityIndexSnapshot.sliceInts(buf, nbrOfCities * 2);
+        snapshotNames = names;
+        //CityNodes are created the first time the Trie returns them
+        cityList = new ArrayList<>(Collections.nCopies(nbrOfCities, (CityNode) null));
+        int nbrOfHeads = buf.getInt();
+        for (int i = 0; i < nbrOfHeads; i++) {
+            NodeHead nh = new NodeHead(buf.getInt(), buf.getInt(), buf.getInt());
+            headNodeList.add(nh);
+            putHeadNode(nh);
         }
-        if (parseName.length() > 1)
-            insertNode(tn,cn,parseName.substring(1));
+        int nbrOfLetters = buf.getInt();
+        for (int i = 0; i < nbrOfLetters; i++) {
+            Letter letter = new Letter(buf.getInt());
+            letter.nbrOfCities = buf.getInt();
+            firstLetterList.add(letter);
+            putFirstLetter(letter);
+        }
+        cityTrie = CityTrie.readSnapshot(buf, normalizer);
+    }
 
-        if (parseName.length() == 1) {
-            tn.isCity = true;
-            tn.cities.add(cn);
+    public CityNode getCity(int cityId)
+    {
+        CityNode cn = cityList.get(cityId);
+        if (cn == null) {
+            cn = new CityNode(snapshotNames.name(snapshotCities.get(cityId * 2 + 1)), snapshotCities.get(cityId * 2));
+            cn.cityId = cityId;
+            cityList.set(cityId, cn);
         }
-        return;
+        return cn;
+    }
+
+    /**
+     * addCity() stores the city in the Trie structures.  The country fields
+     * are not kept by the loader since only the name and geonameid are used.
+     * @param cn
+     */
+    public void addCity(CityNode cn)
+    {
+        //Partition trie structures by last letter in city name
+        int lastLetter = NameNormalizer.lastLetter(cn.name);
+        NodeHead nh = getHeadNode(lastLetter);
+        if (nh == null) {
+            nh = new NodeHead(lastLetter);
+            headNodeList.add(nh);
+            putHeadNode(nh);
+        }
+        insertNode(nh.root,cn,cn.name,0);
+        nh.nbrOfCities++;
+
+        //Store count based on first letter of city name
+        int firstLetter = NameNormalizer.firstLetter(cn.name);
+        Letter letter = getFirstLetter(firstLetter);
+        if (letter == null) {
+            letter = new Letter(firstLetter);
+            firstLetterList.add(letter);
+            putFirstLetter(letter);
+        }
+        letter.nbrOfCities++;
+    }
+
+    /**
+     * Returns the NodeHead of the cities ending with the letter, null if
+     * there is none.
+     * @param letter code point
+     */
+    public NodeHead getHeadNode(int letter)
+    {
+        int symbol = normalizer.symbol(letter);
+        return symbol >= 0 && symbol < headNodeBySymbol.length ? headNodeBySymbol[symbol] : null;
+    }
+
+    private void putHeadNode(NodeHead nh)
+    {
+        int symbol = normalizer.intern(nh.letter);
+        if (symbol >= headNodeBySymbol.length)
+            headNodeBySymbol = Arrays.copyOf(headNodeBySymbol, Math.max(symbol + 1, headNodeBySymbol.length * 2));
+        headNodeBySymbol[symbol] = nh;
+    }
+
+    /**
+     * Returns the count of the cities starting with the letter, null if
+     * there is none.
+     * @param letter code point
+     */
+    public Letter getFirstLetter(int letter)
+    {
+        int symbol = normalizer.symbol(letter);
+        return symbol >= 0 && symbol < firstLetterBySymbol.length ? firstLetterBySymbol[symbol] : null;
+    }
+
+    private void putFirstLetter(Letter letter)
+    {
+        int symbol = normalizer.intern(letter.letter);
+        if (symbol >= firstLetterBySymbol.length)
+            firstLetterBySymbol = Arrays.copyOf(firstLetterBySymbol, Math.max(symbol + 1, firstLetterBySymbol.length * 2));
+        firstLetterBySymbol[symbol] = letter;
+    }
+
+    /**
+     * letterNode() returns the child of a NodeHead root for the first letter
+     * of a name.  A letter outside the BMP is stored as its two surrogates.
+     * @param root
+     * @param letter code point
+     * @return int trie node or CityTrie.NONE
+     */
+    public int letterNode(int root, int letter)
+    {
+        if (Character.isBmpCodePoint(letter))
+            return cityTrie.child(root, (char) letter);
+        int tn = cityTrie.child(root, Character.highSurrogate(letter));
+        return tn == CityTrie.NONE ? CityTrie.NONE : cityTrie.child(tn, Character.lowSurrogate(letter));
+    }
+
+    /**
+     * insertNode() walks down from curNode with the characters of the city
+     * name starting at offset, adding the nodes that don't exist yet, and
+     * stores the city on the last node.
+     * @param curNode
+     * @param cn
+     * @param name
+     * @param offset
+     */
+    public void insertNode(int curNode, CityNode cn, String name, int offset)
+    {
+        if (GameLog.isEnabled(GameLog.TRACE))
+            GameLog.trace("insertNode()::Processing city name "+name);
+
+        int tn = curNode;
+        for (int i = offset; i < name.length(); i++)
+            tn = cityTrie.addChild(tn, name.charAt(i));
+
+        cn.cityId = cityList.size();
+        cityTrie.addCity(tn, cn.cityId);
+        cityList.add(cn);
     }
 
     public String nextMove(String opponentsCity)
     {
-        opponentsCity = opponentsCity.toLowerCase();
+        long start = System.nanoTime();
+        String response = playMove(opponentsCity);
+        GameMetrics.NEXT_MOVE.record(System.nanoTime() - start);
+        if (trieNodesVisited > 0) {
+            GameMetrics.TRIE_NODES_VISITED.add(trieNodesVisited);
+            trieNodesVisited = 0;
+        }
+        return response;
+    }
+
+    private String playMove(String opponentsCity)
+    {
+        if (ENGINE_SHARDED.equals(engine))
+            return shardedSession.nextMove(opponentsCity);
+        if (ENGINE_GRAPH.equals(engine)) {
+            String response = session.nextMove(opponentsCity);
+            MoveSearch search = session.getSearch();
+            if (search != null && GameLog.isEnabled(GameLog.DEBUG))
+                GameLog.debug("nextMove()::Searched "+search.getNodes()+" positions to depth "+search.getDepth()
+                        +" in "+search.getNanos()/1000000+" ms, "+(search.getNodes()*1000000000L/Math.max(1, search.getNanos()))+" positions/s");
+            return response;
+        }
+
+        opponentsCity = normalizer.normalize(opponentsCity);
 
         //No response check.  Opponent has run out of cities
         if (opponentsCity == null || opponentsCity.isEmpty())
             return "Winner. Opponent has run out of cities. Better luck next time.";
 
-        System.out.println("opponentsCity = "+opponentsCity);
+        if (GameLog.isEnabled(GameLog.DEBUG))
+            GameLog.debug("opponentsCity = "+opponentsCity);
 
         //check if opponents city is a valid city and hasn't been used
         int listIndexNH = lookupCity(opponentsCity);
@@ -339,24 +638,40 @@ public class GeographyGame {
         //of the opponents city.  We look up starting with cities where the last letter
         //have the fewest responses to give us the best chance that the next opponent
         //won't be able to guess a response.
-        String lastLetter = opponentsCity.substring(opponentsCity.length() - 1);
-        NodeHead nh = null;
-        TrieNode tn = null;
+        int lastLetter = NameNormalizer.lastLetter(opponentsCity);
+        int lastSymbol = normalizer.symbol(lastLetter);
 
+        //a city after which the opponent has no legal move wins at once, so look for one first
+        letterBitsets.legalMoves(lastSymbol, legalBits);
+        for (int flIndex=0; flIndex<firstLetterList.size(); flIndex++)
+        {
+            Letter letter = firstLetterList.get(flIndex);
+            int symbol = normalizer.symbol(letter.letter);
+            if (!LetterBitsets.isSet(legalBits, symbol) || !letterBitsets.isTrap(lastSymbol, symbol))
+                continue;
+            CityNode cn = candidateCity(letter, lastLetter);
+            if (cn != null) {
+                if (GameLog.isEnabled(GameLog.DEBUG))
+                    GameLog.debug("nextMove()::"+cn.name+" leaves the opponent no legal move");
+                removeCity(cn);
+                return cn.name;
+            }
+        }
+
+        letterBitsets.deadLetters(deadBits);
         for (int flIndex=0; flIndex<firstLetterList.size(); flIndex++)
         {
             //firstLetterList is sorted in ascending order so the fewest possible responses
             Letter letter = firstLetterList.get(flIndex);
-            //find a NodeHead keyed by the last letter in each city ordered by ascending first letter cities
-            nh = headNodeMap.get(letter.key);
-            if (nh == null || nh.childrenMap.size() == 0)
+            int symbol = normalizer.symbol(letter.letter);
+            //skip the letters no city left leads to without walking the trie
+            if (!letterBitsets.hasEdge(lastSymbol, symbol))
                 continue;
-            tn = nh.childrenMap.get(lastLetter);
-            if (tn == null)
+            //no city left starts with the letter, so the opponent could never answer it
+            if (LetterBitsets.isSet(deadBits, symbol))
                 continue;
-
-            //looks up if a city that starts with this letter exists
-            CityNode cn = getCityNameFromTrie(tn);
+            //find a city keyed by the last letter in each city ordered by ascending first letter cities
+            CityNode cn = candidateCity(letter, lastLetter);
             if (cn == null)
                 continue;
 
@@ -366,43 +681,87 @@ public class GeographyGame {
             //otherwise, remove that city and pick another one continuing in least valid responses order
             if (hasValidResponseNotEqualCity(cn)) {
                 //remove my city response from the dataset
-                removeCity(cn.name);
+                removeCity(cn);
                 return cn.name;
-            } else
-                removeCity(cn.name);
+            } else {
+                removeCity(cn);
+                GameMetrics.REJECTED_CANDIDATES.increment();
+            }
         } //end for loop
 
         return "Loser. No valid response found that would give my opponent a valid choice.";
     }
 
-    public static boolean hasValidResponseNotEqualCity(CityNode cn)
+    /**
+     * candidateCity() looks up a city left that starts with lastLetter and
+     * ends with the letter.
+     * @param letter last letter of the city, keys the NodeHead
+     * @param lastLetter last letter of the opponents city
+     * @return CityNode or null if there is none
+     */
+    private CityNode candidateCity(Letter letter, int lastLetter)
     {
-        String lastLetter = cn.name.substring(cn.name.length()-1);
-        for (NodeHead nh : headNodeList)
-        {
-            if (nh.nbrOfCities > 0 && nh.childrenMap.get(lastLetter) != null) {
-                TrieNode tn = nh.childrenMap.get(lastLetter);
-                CityNode nextCn = getCityNameFromTrieNotEqualCity(tn, cn);
-                if (nextCn != null)
-                    return true;
-            }
-        }
-        return false;
+        NodeHead nh = getHeadNode(letter.letter);
+        if (nh == null || cityTrie.liveCities(nh.root) == 0)
+            return null;
+        int tn = letterNode(nh.root, lastLetter);
+        if (tn == CityTrie.NONE)
+            return null;
+        return getCityNameFromTrie(tn);
     }
 
-    public static void removeCity(String city)
+    /**
+     * hasValidResponseNotEqualCity() tells if a city other than cn starts
+     * with the last letter of cn, from the counts of the letter bitsets.
+     * @param cn city that is still in the Trie
+     * @return boolean
+     */
+    public boolean hasValidResponseNotEqualCity(CityNode cn)
+    {
+        return letterBitsets.hasResponse(normalizer.symbol(NameNormalizer.firstLetter(cn.name)),
+                normalizer.symbol(NameNormalizer.lastLetter(cn.name)));
+    }
+
+    public void removeCity(String city)
     {
+        if (ENGINE_GRAPH.equals(engine)) {
+            session.removeCity(city);
+            return;
+        }
+        if (ENGINE_SHARDED.equals(engine)) {
+            shardedSession.removeCity(city);
+            return;
+        }
         int listIndexNH = lookupCity(city);
         NodeHead opponentsNh = headNodeList.get(listIndexNH);
 
         //remove opponents city from Trie so it won't be chosen again
-        TrieNode opponentsTn = opponentsNh.childrenMap.get(city.substring(0,1));
-        removeCityFromTrie(opponentsTn, city.substring(1));
-        opponentsNh.nbrOfCities--;
+        removeCityFromTrie(opponentsNh.root, city);
+        cityRemoved(opponentsNh, city);
+    }
+
+    /**
+     * removeCity() removes this city from the Trie structures, other cities
+     * with the same name stay available.  Used for the city nextMove() picked,
+     * which it already holds, so neither the NodeHeads nor the Trie have to
+     * be searched.
+     * @param cn city returned by the Trie
+     */
+    public void removeCity(CityNode cn)
+    {
+        NodeHead nh = getHeadNode(NameNormalizer.lastLetter(cn.name));
+        if (nh != null && cityTrie.removeCity(cn.cityId))
+            cityRemoved(nh, cn.name);
+    }
+
+    private void cityRemoved(NodeHead nh, String city)
+    {
+        nh.nbrOfCities--;
+        letterBitsets.remove(normalizer.symbol(NameNormalizer.firstLetter(city)), normalizer.symbol(nh.letter));
         //clean up NodeHead if no entries
-        if (opponentsNh.nbrOfCities == 0) {
-            headNodeMap.remove(opponentsNh.key);
-            headNodeList.remove(listIndexNH);
+        if (nh.nbrOfCities == 0) {
+            headNodeBySymbol[normalizer.symbol(nh.letter)] = null;
+            headNodeList.remove(nh);
         }
         else
         {
@@ -410,124 +769,104 @@ public class GeographyGame {
             Collections.sort(headNodeList);
         }
         //decrement count by first letter and remove if count is 0
-        Letter letter = firstLetterMap.get(city.substring(0,1));
+        Letter letter = getFirstLetter(NameNormalizer.firstLetter(city));
         letter.nbrOfCities--;
         if (letter.nbrOfCities == 0)
         {
             firstLetterList.remove(letter);
-            firstLetterMap.remove(letter.key);
+            firstLetterBySymbol[normalizer.symbol(letter.letter)] = null;
         }
         else
             Collections.sort(firstLetterList);
     }
 
-    public static int lookupCity(String city)
+    public int lookupCity(String city)
     {
         if (city == null || city.isEmpty())
             return -1;
-        String firstLetter = city.substring(0,1).toLowerCase();
-        String lastLetter = city.substring(city.length()-1);
+        int firstLetter = NameNormalizer.firstLetter(city);
+        int lastLetter = NameNormalizer.lastLetter(city);
 
         NodeHead nh = null;
         for (int i=0; i<headNodeList.size(); i++)
         {
             nh = headNodeList.get(i);
-            if (!nh.key.equals(lastLetter))
+            if (nh.letter != lastLetter)
                 continue;
             else
             {
-                if (nh.nbrOfCities > 0 && nh.childrenMap.containsKey(firstLetter)) {
-                    if (findCityInTrie(nh.childrenMap.get(firstLetter), city.substring(1)))
-                        return i;
-                }
+                if (nh.nbrOfCities > 0 && findCityInTrie(letterNode(nh.root, firstLetter), city, Character.charCount(firstLetter)))
+                    return i;
             }
         }
 
         return -1;
     }
 
-    public static boolean findCityInTrie(TrieNode tn, String name)
+    public boolean findCityInTrie(int tn, String name, int offset)
     {
-        if (tn == null)
+        if (tn == CityTrie.NONE)
             return false;
 
-        if (name.length() > 0)
-            return findCityInTrie(tn.childrenMap.get(name.substring(0,1)),name.substring(1));
-
-        if (tn.isCity)
-            return true;
-        else
-            return false;
+        trieNodesVisited += name.length() - offset + 1;
+        tn = cityTrie.walk(tn, name, offset);
+        return tn != CityTrie.NONE && cityTrie.isCity(tn);
     }
 
-    public static void removeCityFromTrie(TrieNode tn, String city)
+    /**
+     * removeCityFromTrie() removes the first city stored for the name under
+     * the root node.  The trie lowers the live counts on the path, a branch
+     * left without cities is unlinked the next time a lookup passes it.
+     * @param root NodeHead root whose children are keyed by first letter
+     * @param city
+     */
+    public void removeCityFromTrie(int root, String city)
     {
-        if (city.length() > 0)
-            removeCityFromTrie(tn.childrenMap.get(city.substring(0,1)),city.substring(1));
-
-        if (city.length() == 0)
-        {
-            tn.cities.remove(0);
-            if (tn.cities.size() == 0)
-                tn.isCity = false;
-        }
-        else {
-            TrieNode oneDown = tn.childrenMap.get(city.substring(0, 1));
-            if (oneDown != null &&
-                    oneDown.isCity == false &&
-                    oneDown.childrenMap.size() == 0)
-                tn.childrenMap.remove(city.substring(0, 1));
-        }
+        trieNodesVisited += city.length();
+        int tn = cityTrie.walk(root, city, 0);
+        if (tn != CityTrie.NONE)
+            cityTrie.removeFirstCity(tn);
     }
 
-    public static CityNode getCityNameFromTrie(TrieNode tn)
+    public CityNode getCityNameFromTrie(int tn)
     {
-        //if TrieNode contains a city then return first city in the list
-        if (tn.isCity)
-            return tn.cities.get(0);
-
-        //TrieNode doesn't contain children. dead end.
-        if (tn.childrenMap.isEmpty())
+        //branches without cities left are skipped so this is one step per level
+        if (tn == CityTrie.NONE || cityTrie.liveCities(tn) == 0)
             return null;
-
-        //Keep walking children and return the first city encountered
-        for (TrieNode child : tn.childrenMap.values())
+        while (tn != CityTrie.NONE)
         {
-            if (child != null)
-                return getCityNameFromTrie(child);
+            trieNodesVisited++;
+            //if TrieNode contains a city then return first city in the list
+            if (cityTrie.isCity(tn))
+                return getCity(cityTrie.firstCity(tn));
+
+            tn = cityTrie.firstLiveChild(tn);
         }
         return null;
     }
 
-    public static CityNode getCityNameFromTrieNotEqualCity(TrieNode tn, CityNode notEqualCity)
+    public CityNode getCityNameFromTrieNotEqualCity(int tn, CityNode notEqualCity)
     {
         //if TrieNode contains a city then return first city in the list
         //that doesn't equal this city
-        if (tn.isCity) {
-            CityNode cn = tn.cities.get(0);
+        if (cityTrie.isCity(tn)) {
+            int cityId = cityTrie.firstCity(tn);
+            CityNode cn = getCity(cityId);
             if (!cn.equals(notEqualCity))
                 return cn;
             else
             {
-                if (tn.cities.size() > 1)
+                cityId = cityTrie.nextCity(cityId);
+                if (cityId != CityTrie.NONE)
                 {
-                    cn = tn.cities.get(1);
+                    cn = getCity(cityId);
                     if (!cn.equals(notEqualCity))
                         return cn;
                 }
             }
         }
-        //TrieNode doesn't contain children. dead end.
-        if (tn.childrenMap.isEmpty())
-            return null;
-
         //Keep walking children and return the first city encountered
-        for (TrieNode child : tn.childrenMap.values())
-        {
-            if (child != null)
-                return getCityNameFromTrie(child);
-        }
-        return null;
+        return getCityNameFromTrie(cityTrie.firstLiveChild(tn));
     }
 
     /**
@@ -541,7 +880,7 @@ public class GeographyGame {
             //player 1 gets to name the first city
             String nextCity = startCity;
             if (filePrefixPlyr.equals("Player1")) {
-                nextCity = nextCity.toLowerCase();
+                nextCity = normalizer.normalize(nextCity);
                 writeNext(filePrefixPlyr, playerIndex, nextCity);
                 removeCity(nextCity);
                 playerIndex++;
@@ -559,63 +898,107 @@ public class GeographyGame {
         {
             e.printStackTrace();
         }
+        finally
+        {
+            saveTablebase();
+            if (session != null && session.getSearch() != null)
+                session.getSearch().close();
+            try {
+                if (transport != null)
+                    transport.close();
+            } catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
     }
 
-    public static void init() {
+    /**
+     * saveTablebase() keeps the endgame positions solved in this game for
+     * the next one.
+     */
+    public void saveTablebase()
+    {
+        if (endgame == null)
+            return;
+        try {
+            endgame.save(tablebaseFile);
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public void init(Properties _props) {
+        props = _props;
         startCity = props.getProperty("geo.player.startCity");
         fileName = props.getProperty("geo.player.datafile");
+        indexFile = props.getProperty("geo.player.indexfile");
         playerIndex = Integer.parseInt(props.getProperty("geo.player.playerIndex"));
         filePrefixCTRL = props.getProperty("geo.player.filePrefixCTRL");
         filePrefixPlyr = props.getProperty("geo.player.filePrefixPlyr");
         gameDirectory  = props.getProperty("geo.player.gameDirectory");
         playDirectory = gameDirectory + System.getProperty("file.separator") + "play";
         readTimeout = Integer.parseInt(props.getProperty("geo.player.read.timeout"));
-    }
-
-    public static String startCity;
-    public static String fileName;
-    public static int playerIndex;
-    public static String filePrefixCTRL;
-    public static String filePrefixPlyr;
-    public static String gameDirectory;
-    public static String playDirectory;
-    public static int readTimeout;
-
-    public static void writeNext(String filePrefix, int index, String data) throws Exception
-    {
-        String nextFile = playDirectory + System.getProperty("file.separator") + filePrefix + "_" + index + ".txt";
-        String nextTrigger = playDirectory + System.getProperty("file.separator") + filePrefix + "_TriggerRSP_" + index + ".txt";
-        BufferedWriter bfWriter = new BufferedWriter(new FileWriter(new File(nextFile)));
-        bfWriter.write(data);
-        bfWriter.flush();
-        bfWriter.close();
-        BufferedWriter bfTriggerWriter = new BufferedWriter(new FileWriter(new File(nextTrigger)));
-        bfTriggerWriter.write("TAG! You're it.");
-        bfTriggerWriter.flush();
-        bfTriggerWriter.close();
-    }
-    public static String readNext(String filePrefix, int index) throws Exception
-    {
-        int count = 0;
-        File fPlayDir = new File(playDirectory);
-        if (!fPlayDir.exists())
-            fPlayDir.mkdirs();
-        String responseTrigger = playDirectory + System.getProperty("file.separator") + filePrefix + "_Trigger_" + index + ".txt";
-        File trigFile = new File(responseTrigger);
-        //wait three seconds for a response
-        while (count < readTimeout)
+        engine = props.getProperty("geo.player.engine", ENGINE_GRAPH);
+        searchMillis = Long.parseLong(props.getProperty("geo.player.search.millis", "0"));
+        searchThreads = Integer.parseInt(props.getProperty("geo.player.search.threads", "1"));
+        searchStrategy = props.getProperty("geo.player.search.strategy", SEARCH_ALPHABETA);
+        endgameCities = Integer.parseInt(props.getProperty("geo.player.endgame.cities", "0"));
+        tablebaseFile = props.getProperty("geo.player.endgame.tablebase");
+        bookFile = props.getProperty("geo.player.book");
+        shardFile = props.getProperty("geo.player.shardfile");
+        GameLog.configure(props, "geo.player.");
+        setNormalizer(NameNormalizer.fromProperties(props, "geo.player."));
+        GameMetrics.configure(props, "geo.player.");
+        try {
+            transport = createTransport();
+        } catch (Exception e)
         {
-            if (trigFile.exists())
-                break;
-            else
-                Thread.sleep(100);
-            count++;
+            e.printStackTrace();
         }
-        String nextFile = playDirectory + System.getProperty("file.separator") + filePrefix + "_" + index + ".txt";
-        BufferedReader bfReader = new BufferedReader(new FileReader(new File(nextFile)));
-        String response = bfReader.readLine();
-        bfReader.close();
-        return response;
+    }
+
+    public String startCity;
+    public String fileName;
+    public String indexFile;
+    public int playerIndex;
+    public String filePrefixCTRL;
+    public String filePrefixPlyr;
+    public String gameDirectory;
+    public String playDirectory;
+    public int readTimeout;
+    public GameTransport transport;
+
+    public void writeNext(String filePrefix, int index, String data) throws Exception
+    {
+        long start = System.nanoTime();
+        transport.writeNext(filePrefix, index, data);
+        GameMetrics.WRITE_NEXT.record(System.nanoTime() - start);
+    }
+    public String readNext(String filePrefix, int index) throws Exception
+    {
+        long start = System.nanoTime();
+        String data = transport.readNext(filePrefix, index);
+        GameMetrics.READ_NEXT.record(System.nanoTime() - start);
+        return data;
+    }
+
+    /**
+     * createTransport() opens the transport selected with geo.player.transport,
+     * file (default), watch or socket.
+     * @return GameTransport
+     * @throws Exception
+     */
+    public GameTransport createTransport() throws Exception
+    {
+        String type = props.getProperty("geo.player.transport", GameTransport.FILE);
+        if (GameTransport.WATCH.equals(type))
+            return new WatchServiceTransport(playDirectory, false, readTimeout);
+        if (GameTransport.SOCKET.equals(type))
+            return SocketTransport.connect(props.getProperty("geo.player.transport.host", "localhost"),
+                    Integer.parseInt(props.getProperty("geo.player.transport.port")), filePrefixPlyr, readTimeout);
+        return new FileTransport(playDirectory, false, readTimeout);
     }
     /**
     * End Controller inter-op code section
@@ -0,0 +1,146 @@
+package com.css.geographygame;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>Latency Histogram</h1>
+ * Log-linear histogram of latencies in nanoseconds in the style of
+ * HdrHistogram.  Every power of two is split into 32 linear sub buckets, so
+ * a recorded value is off by less than 1/32 (about 3%) from the value
+ * reported for it, from 1 ns up to 2^41 ns, about 36 minutes.  Larger values are
+ * counted in the last bucket.
+ * <p>
+ * record() only updates atomic longs in preallocated arrays, so it never
+ * allocates and can be called from any number of threads.  The percentiles
+ * are read without stopping the writers and may miss the values recorded
+ * while they are computed.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 35;
+    private static final long MAX_VALUE = ((long) SUB_BUCKETS << (MAX_SHIFT + 1)) - 1;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String _name)
+    {
+        name = _name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * record() adds one latency.
+     * @param nanos
+     */
+    public void record(long nanos)
+    {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    private static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    //highest value that is counted in the bucket
+    private static long highestValue(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * getValueAtPercentile() returns the latency in nanoseconds that the
+     * percentage of the recorded values are at or below, 0 if nothing was
+     * recorded.
+     * @param percentile 0 to 100
+     * @return long
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = count.get();
+        if (total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < counts.length(); b++)
+        {
+            seen += counts.get(b);
+            if (seen >= target)
+                return Math.min(highestValue(b), max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    @Override
+    public double getMeanMicros()
+    {
+        long total = count.get();
+        return total == 0 ? 0 : sum.get() / 1000.0 / total;
+    }
+
+    @Override
+    public double getP50Micros()
+    {
+        return getValueAtPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros()
+    {
+        return getValueAtPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros()
+    {
+        return getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros()
+    {
+        return max.get() / 1000.0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                name, getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getP999Micros(), getMaxMicros());
+    }
+}
@@ -0,0 +1,24 @@
+package com.css.geographygame;
+
+/**
+ * <h1>Latency Histogram MBean</h1>
+ * JMX view of a {@link LatencyHistogram}, all times in microseconds.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
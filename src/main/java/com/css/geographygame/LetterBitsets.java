@@ -0,0 +1,265 @@
+package com.css.geographygame;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Letter Bitsets</h1>
+ * City counts of the trie engine by (first, last) letter kept as bitsets, so
+ * the questions nextMove() asks about letters are answered with a few bit
+ * operations instead of trie walks.  Letters are the symbols of
+ * {@link NameNormalizer}.  The live bitset has a bit for every letter some
+ * city left starts with, and the adjacency matrix has a row of bits per first
+ * letter with the bit of every last letter that has a city left for the pair.
+ * The counts behind the bits are kept too, and remove() clears a bit when its
+ * count drops to 0, so both stay current in O(1) per city played.
+ * <p>
+ * A move from letter f to letter l is legal if the opponent can answer l,
+ * i.e. l is live, or has a second city if the move was its only one.  A trap
+ * is a legal move after which the opponent has no legal move, and the
+ * letters reachable from a letter are found by or'ing the rows of the
+ * letters found so far, 64 letters per operation.  The queries that return a
+ * bitset fill one of getWords() longs the caller passes in and allocate
+ * nothing.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class LetterBitsets {
+
+    private final int nbrOfLetters;
+    private final int words;
+    private final int[] pairCount;
+    private final int[] firstCount;
+    private final long[] live;
+    private final long[] adjacency;
+
+    public LetterBitsets(int _nbrOfLetters)
+    {
+        nbrOfLetters = _nbrOfLetters;
+        words = (nbrOfLetters + 63) >>> 6;
+        pairCount = new int[nbrOfLetters * nbrOfLetters];
+        firstCount = new int[nbrOfLetters];
+        live = new long[words];
+        adjacency = new long[nbrOfLetters * words];
+    }
+
+    /**
+     * add() adds count cities from the first to the last letter.
+     * @param first symbol of the first letter
+     * @param last symbol of the last letter
+     * @param count
+     */
+    public void add(int first, int last, int count)
+    {
+        if (count <= 0)
+            return;
+        pairCount[first * nbrOfLetters + last] += count;
+        firstCount[first] += count;
+        adjacency[first * words + (last >>> 6)] |= 1L << last;
+        live[first >>> 6] |= 1L << first;
+    }
+
+    /**
+     * remove() takes away one city from the first to the last letter.
+     * @param first symbol of the first letter
+     * @param last symbol of the last letter
+     */
+    public void remove(int first, int last)
+    {
+        if (--pairCount[first * nbrOfLetters + last] == 0)
+            adjacency[first * words + (last >>> 6)] &= ~(1L << last);
+        if (--firstCount[first] == 0)
+            live[first >>> 6] &= ~(1L << first);
+    }
+
+    public boolean hasEdge(int first, int last)
+    {
+        return (adjacency[first * words + (last >>> 6)] & 1L << last) != 0;
+    }
+
+    public boolean isLive(int letter)
+    {
+        return (live[letter >>> 6] & 1L << letter) != 0;
+    }
+
+    /**
+     * hasResponse() tells if a city starting with last is left once a city
+     * from first to last is played, i.e. if playing that city is legal.
+     */
+    public boolean hasResponse(int first, int last)
+    {
+        return first == last ? firstCount[last] > 1 : isLive(last);
+    }
+
+    /**
+     * isTrap() tells if the opponent has no legal move once the city from
+     * first to last is played, so the move wins at once.  The counts after
+     * the move are worked out in place, only the bits of first and last can
+     * differ from the current ones.
+     */
+    public boolean isTrap(int first, int last)
+    {
+        if (!hasEdge(first, last) || !hasResponse(first, last))
+            return false;
+        int row = last * words;
+        for (int w = 0; w < words; w++)
+        {
+            long moves = adjacency[row + w] & live[w];
+            if (w == first >>> 6)
+                moves &= ~(1L << first);
+            if (w == last >>> 6)
+                moves &= ~(1L << last);
+            if (moves != 0)
+                return false;
+        }
+        return !isReply(first, last, first) && !isReply(first, last, last);
+    }
+
+    /**
+     * legalMoves() sets the bits of the last letters of the legal moves from
+     * the letter.
+     * @param first symbol of the letter to start with
+     * @param into bitset of getWords() longs
+     * @return long[] into
+     */
+    public long[] legalMoves(int first, long[] into)
+    {
+        int row = first * words;
+        for (int w = 0; w < words; w++)
+            into[w] = adjacency[row + w] & live[w];
+        //the only city of a letter that ends with it leaves nothing to answer
+        if (firstCount[first] == 1)
+            into[first >>> 6] &= ~(1L << first);
+        return into;
+    }
+
+    /**
+     * deadLetters() sets the bits of the letters no city left starts with,
+     * handing one of them to the opponent isn't a legal move.
+     * @param into bitset of getWords() longs
+     * @return long[] into
+     */
+    public long[] deadLetters(long[] into)
+    {
+        for (int w = 0; w < words; w++)
+            into[w] = ~live[w];
+        if ((nbrOfLetters & 63) != 0)
+            into[words - 1] &= (1L << nbrOfLetters) - 1;
+        return into;
+    }
+
+    /**
+     * trapLetters() sets the bits of the live letters without a legal move,
+     * the player that has to start with one of them loses.  Handing one to
+     * the opponent wins unless the move itself opens a way out, see isTrap().
+     * @param into bitset of getWords() longs
+     * @param moves scratch bitset of getWords() longs
+     * @return long[] into
+     */
+    public long[] trapLetters(long[] into, long[] moves)
+    {
+        Arrays.fill(into, 0, words, 0);
+        for (int w = 0; w < words; w++)
+        {
+            for (long bits = live[w]; bits != 0; bits &= bits - 1)
+            {
+                int letter = (w << 6) + Long.numberOfTrailingZeros(bits);
+                legalMoves(letter, moves);
+                long any = 0;
+                for (int v = 0; v < words; v++)
+                    any |= moves[v];
+                if (any == 0)
+                    into[w] |= 1L << letter;
+            }
+        }
+        return into;
+    }
+
+    /**
+     * reachable() sets the bits of the letters that can be reached from the
+     * letter by a chain of cities left, ignoring that every city is played
+     * once.  A letter that can't reach itself will never be handed back.
+     * @param letter symbol of the letter to start from
+     * @param into bitset of getWords() longs
+     * @param frontier scratch bitset of getWords() longs
+     * @param next scratch bitset of getWords() longs
+     * @return long[] into
+     */
+    public long[] reachable(int letter, long[] into, long[] frontier, long[] next)
+    {
+        System.arraycopy(adjacency, letter * words, into, 0, words);
+        System.arraycopy(into, 0, frontier, 0, words);
+        boolean grew = true;
+        while (grew)
+        {
+            Arrays.fill(next, 0, words, 0);
+            for (int w = 0; w < words; w++)
+            {
+                for (long bits = frontier[w]; bits != 0; bits &= bits - 1)
+                {
+                    int row = ((w << 6) + Long.numberOfTrailingZeros(bits)) * words;
+                    for (int v = 0; v < words; v++)
+                        next[v] |= adjacency[row + v];
+                }
+            }
+            grew = false;
+            for (int w = 0; w < words; w++)
+            {
+                frontier[w] = next[w] & ~into[w];
+                into[w] |= frontier[w];
+                grew |= frontier[w] != 0;
+            }
+        }
+        return into;
+    }
+
+    /**
+     * isSet() tells if the bit of the letter is set in a bitset.
+     */
+    public static boolean isSet(long[] bits, int letter)
+    {
+        return (bits[letter >>> 6] & 1L << letter) != 0;
+    }
+
+    /**
+     * isReply() tells if the opponent can answer the city from first to last
+     * with a city from last to reply, leaving a city that starts with reply.
+     */
+    private boolean isReply(int first, int last, int reply)
+    {
+        int pairs = pairCount[last * nbrOfLetters + reply];
+        if (first == last && last == reply)
+            pairs--;
+        int left = firstCount[reply];
+        if (reply == first)
+            left--;
+        if (reply == last)
+            left--;
+        return pairs > 0 && left > 0;
+    }
+
+    public int getFirstCount(int letter)
+    {
+        return firstCount[letter];
+    }
+
+    public int getPairCount(int first, int last)
+    {
+        return pairCount[first * nbrOfLetters + last];
+    }
+
+    /**
+     * Returns the number of longs of a bitset of every letter.
+     */
+    public int getWords()
+    {
+        return words;
+    }
+
+    public int getNbrOfLetters()
+    {
+        return nbrOfLetters;
+    }
+}
@@ -0,0 +1,681 @@
+package com.css.geographygame;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <h1>MCTS Search</h1>
+ * Monte Carlo tree search (UCT) for the letter graph engine, an alternative
+ * to the alpha-beta {@link MoveSearch} while many letters are left and the
+ * alpha-beta search can't look deep enough.  The positions and moves are the
+ * ones of MoveSearch: the city counts by letter pair, and a move takes a city
+ * of a pair with the current first letter as long as the opponent can
+ * respond to its last letter.
+ * <p>
+ * Every iteration walks down the tree by the UCT rule, adds the children of
+ * the leaf once it has been visited EXPAND_VISITS times and plays a game
+ * from it.  New children start with PRIOR visits scored like the greedy
+ * player would score them, the fewer responses a move leaves the better, so
+ * the search follows the greedy moves until the playouts say otherwise.  A
+ * playout plays the greedy move GREEDY percent of the time and a random
+ * legal move otherwise, and is scored as a draw if it runs for MAX_PLAYOUT
+ * plies; pure random playouts end about as often for either player and tell
+ * the search next to nothing.  Won and lost positions found in the tree are
+ * proven (MCTS-Solver): a node with a winning child is a loss for the
+ * player that moved into it, one whose children all lose is a win, and
+ * proven nodes are never searched again.
+ * </p>
+ * <p>
+ * Moves are applied to one count array and taken back from an undo log, so
+ * an iteration never copies the position.  The tree arrays start with
+ * INITIAL_NODES nodes and double when the children of a node don't fit, up
+ * to 2^nodeBits nodes, so a short time budget never pays for the largest
+ * tree; beyond the doublings nothing is allocated while the search runs.
+ * The random numbers come from a xorshift generator owned by the search.
+ * </p>
+ * <p>
+ * The tree is kept between moves: when the position of the next call is the
+ * one after the move played and the opponent's response, the subtree of
+ * that position is compacted to become the new root.  The arrays it is
+ * compacted into are allocated the first time a tree is kept.  With more than one
+ * thread the search is root parallel: every thread grows its own tree for
+ * the same position and the visits of the root moves are added up, the move
+ * with the most visits is played.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.MctsSearch world-cities.csv maxThreads millis
+ * reports the playouts per second and the speedup for 1, 2, 4 ... maxThreads threads.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class MctsSearch extends MoveSearch {
+
+    public static final int DEFAULT_NODE_BITS = 20;
+    private static final int INITIAL_NODES = 1 << 12;
+    private static final int EXPAND_VISITS = 16;
+    private static final int MAX_TREE_DEPTH = 256;
+    private static final int MAX_PLAYOUT = 1024;
+    private static final double EXPLORATION = 0.5;
+    //virtual visits of a new child and percent of greedy moves in a playout
+    private static final int PRIOR = 100;
+    private static final int GREEDY = 90;
+    //random edges tried before the legal moves are collected with a scan
+    private static final int SAMPLES = 8;
+    private static final int NOT_EXPANDED = -1;
+    private static final int NO_MOVES = -2;
+    //proven results of a node for the player that moved into it
+    private static final byte WIN = 1;
+    private static final byte LOSS = -1;
+
+    private final int nbrOfLetters;
+    private final long budgetNanos;
+    private final int maxNodes;
+
+    //position of the iteration, moves are taken back from the undo log
+    private final int[] pairCount;
+    private final int[] firstCount;
+    private final int[] undoPair = new int[MAX_TREE_DEPTH + MAX_PLAYOUT + 1];
+    private final int[] undoFirst = new int[MAX_TREE_DEPTH + MAX_PLAYOUT + 1];
+    private int undoTop;
+
+    //last letters of the pairs with cities by first letter, see MoveSearch
+    private final int[] edgeOffset;
+    private final int[] edgeLast;
+    private final long[] pairKeys;
+
+    //tree in parallel arrays, the wins of a node are counted for the player that moved into it
+    private int[] nodeMove;
+    private int[] nodeParent;
+    private int[] nodeChild;
+    private int[] nodeSibling;
+    private int[] nodeVisits;
+    private float[] nodeWins;
+    private byte[] nodeProven;
+    //second set of arrays the kept subtree is compacted into, null until a tree is kept
+    private int[] spareMove;
+    private int[] spareParent;
+    private int[] spareChild;
+    private int[] spareSibling;
+    private int[] spareVisits;
+    private float[] spareWins;
+    private byte[] spareProven;
+    private int nbrOfNodes;
+    private int rootFirst = -1;
+    private long rootHash;
+    private int playedMove = -1;
+
+    private long random;
+    private final ForkJoinPool pool;
+    private final MctsSearch[] helpers;
+    private final ForkJoinTask<?>[] tasks;
+
+    //playouts of this thread and of all threads in the last call to bestMove()
+    private long searchPlayouts;
+    private long playouts;
+    private int depth;
+    private long nanos;
+    private int reusedVisits;
+
+    public MctsSearch(CityIndex index, long _budgetMillis, int _threads)
+    {
+        this(index, _budgetMillis, _threads, DEFAULT_NODE_BITS, 0x4D435453L);
+    }
+
+    public MctsSearch(CityIndex index, long _budgetMillis, int _threads, int nodeBits, long seed)
+    {
+        //the tree takes the place of the transposition table of the alpha-beta search
+        super(index, _budgetMillis, new TranspositionTable(0), 1);
+        nbrOfLetters = index.nbrOfLetters;
+        budgetNanos = _budgetMillis * 1000000L;
+        pairCount = new int[nbrOfLetters * nbrOfLetters];
+        firstCount = new int[nbrOfLetters];
+        edgeOffset = new int[nbrOfLetters + 1];
+        int nbrOfEdges = 0;
+        for (int pair = 0; pair < pairCount.length; pair++)
+            if (index.pairCount[pair] > 0)
+                nbrOfEdges++;
+        edgeLast = new int[nbrOfEdges];
+        for (int first = 0, e = 0; first < nbrOfLetters; first++)
+        {
+            edgeOffset[first] = e;
+            for (int last = 0; last < nbrOfLetters; last++)
+                if (index.pairCount[first * nbrOfLetters + last] > 0)
+                    edgeLast[e++] = last;
+            edgeOffset[first + 1] = e;
+        }
+        Random keys = new Random(0x47454F);
+        pairKeys = new long[pairCount.length];
+        for (int pair = 0; pair < pairKeys.length; pair++)
+            pairKeys[pair] = keys.nextLong();
+        random = seed == 0 ? 1 : seed;
+
+        maxNodes = 1 << nodeBits;
+        int capacity = Math.min(maxNodes, INITIAL_NODES);
+        nodeMove = new int[capacity];
+        nodeParent = new int[capacity];
+        nodeChild = new int[capacity];
+        nodeSibling = new int[capacity];
+        nodeVisits = new int[capacity];
+        nodeWins = new float[capacity];
+        nodeProven = new byte[capacity];
+
+        int threads = Math.max(1, _threads);
+        pool = threads > 1 ? new ForkJoinPool(threads - 1) : null;
+        helpers = new MctsSearch[threads - 1];
+        tasks = new ForkJoinTask<?>[threads - 1];
+        for (int i = 0; i < helpers.length; i++)
+            helpers[i] = new MctsSearch(index, _budgetMillis, 1, nodeBits, seed + 0x9E3779B97F4A7C15L * (i + 1));
+    }
+
+    /**
+     * bestMove() searches the position of the session where the player to
+     * move has to start with the letter first until the time budget runs out.
+     * @param _pairCount city counts by letter pair of the session
+     * @param _firstCount city counts by first letter of the session
+     * @param first dense index of the letter to start with
+     * @return int dense index of the last letter to play or -1 if there is no legal move
+     */
+    @Override
+    public int bestMove(int[] _pairCount, int[] _firstCount, int first)
+    {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        for (int i = 0; i < helpers.length; i++)
+        {
+            MctsSearch helper = helpers[i];
+            tasks[i] = pool.submit(() -> helper.search(_pairCount, _firstCount, first, deadline));
+        }
+        search(_pairCount, _firstCount, first, deadline);
+
+        int best = -1;
+        int bestVisits = 0;
+        playouts = searchPlayouts;
+        for (int i = 0; i < helpers.length; i++)
+        {
+            tasks[i].join();
+            playouts += helpers[i].searchPlayouts;
+            depth = Math.max(depth, helpers[i].depth);
+        }
+        //a proven win, else the most visited move that isn't a proven loss
+        int bestProven = LOSS - 1;
+        for (int child = nodeChild[0]; child >= 0; child = nodeSibling[child])
+        {
+            int move = nodeMove[child];
+            int visits = nodeVisits[child];
+            int proven = nodeProven[child];
+            for (MctsSearch helper : helpers)
+            {
+                int c = helper.findChild(0, move);
+                if (c >= 0) {
+                    visits += helper.nodeVisits[c];
+                    if (helper.nodeProven[c] != 0)
+                        proven = helper.nodeProven[c];
+                }
+            }
+            if (proven > bestProven || proven == bestProven && visits > bestVisits) {
+                best = move;
+                bestVisits = visits;
+                bestProven = proven;
+            }
+        }
+        playedMove = best;
+        for (MctsSearch helper : helpers)
+            helper.playedMove = best;
+        nanos = System.nanoTime() - start;
+        return best;
+    }
+
+    private void search(int[] _pairCount, int[] _firstCount, int first, long deadline)
+    {
+        System.arraycopy(_pairCount, 0, pairCount, 0, pairCount.length);
+        System.arraycopy(_firstCount, 0, firstCount, 0, firstCount.length);
+        long hash = 0;
+        for (int pair = 0; pair < pairCount.length; pair++)
+            hash += pairCount[pair] * pairKeys[pair];
+        reuseTree(hash, first);
+        rootFirst = first;
+        rootHash = hash;
+        playedMove = -1;
+        searchPlayouts = 0;
+        depth = 0;
+
+        do {
+            for (int i = 0; i < 16; i++)
+                iterate(first);
+            searchPlayouts += 16;
+        } while (System.nanoTime() < deadline && nodeProven[0] == 0);
+    }
+
+    /**
+     * reuseTree() keeps the subtree of the position after the move played
+     * from the last root and the opponent's response if the position matches,
+     * otherwise the tree starts over.  The root is always node 0.
+     */
+    private void reuseTree(long hash, int first)
+    {
+        int keep = -1;
+        if (rootFirst >= 0 && playedMove >= 0 && nbrOfNodes > 0
+                && hash == rootHash - pairKeys[rootFirst * nbrOfLetters + playedMove] - pairKeys[playedMove * nbrOfLetters + first])
+        {
+            int child = findChild(0, playedMove);
+            keep = child >= 0 ? findChild(child, first) : -1;
+        }
+        if (keep < 0) {
+            nbrOfNodes = 1;
+            nodeParent[0] = -1;
+            nodeChild[0] = NOT_EXPANDED;
+            nodeSibling[0] = -1;
+            nodeVisits[0] = 0;
+            nodeWins[0] = 0;
+            nodeProven[0] = 0;
+            reusedVisits = 0;
+            return;
+        }
+        reusedVisits = nodeVisits[keep];
+        if (spareMove == null || spareMove.length < nodeMove.length) {
+            int capacity = nodeMove.length;
+            spareMove = new int[capacity];
+            spareParent = new int[capacity];
+            spareChild = new int[capacity];
+            spareSibling = new int[capacity];
+            spareVisits = new int[capacity];
+            spareWins = new float[capacity];
+            spareProven = new byte[capacity];
+        }
+
+        //copy the subtree breadth first, the children of a node stay next to each other
+        spareMove[0] = nodeMove[keep];
+        spareParent[0] = -1;
+        spareSibling[0] = -1;
+        spareVisits[0] = nodeVisits[keep];
+        spareWins[0] = nodeWins[keep];
+        spareProven[0] = nodeProven[keep];
+        int[] from = spareChild;    //the old index of every copied node, overwritten below
+        from[0] = keep;
+        int size = 1;
+        for (int copy = 0; copy < size; copy++)
+        {
+            int old = from[copy];
+            int oldChild = nodeChild[old];
+            if (oldChild < 0) {
+                from[copy] = oldChild;
+                continue;
+            }
+            int firstCopy = size;
+            for (int c = oldChild; c >= 0; c = nodeSibling[c])
+            {
+                spareMove[size] = nodeMove[c];
+                spareParent[size] = copy;
+                spareVisits[size] = nodeVisits[c];
+                spareWins[size] = nodeWins[c];
+                spareProven[size] = nodeProven[c];
+                spareSibling[size] = nodeSibling[c] >= 0 ? size + 1 : -1;
+                from[size++] = c;
+            }
+            from[copy] = firstCopy;
+        }
+        int[] ints = nodeMove; nodeMove = spareMove; spareMove = ints;
+        ints = nodeParent; nodeParent = spareParent; spareParent = ints;
+        ints = nodeChild; nodeChild = spareChild; spareChild = ints;
+        ints = nodeSibling; nodeSibling = spareSibling; spareSibling = ints;
+        ints = nodeVisits; nodeVisits = spareVisits; spareVisits = ints;
+        float[] floats = nodeWins; nodeWins = spareWins; spareWins = floats;
+        byte[] bytes = nodeProven; nodeProven = spareProven; spareProven = bytes;
+        nbrOfNodes = size;
+    }
+
+    /**
+     * hasRoom() doubles the tree arrays until they hold the number of nodes,
+     * as long as they stay within 2^nodeBits nodes.
+     * @return boolean true if the tree arrays hold the number of nodes
+     */
+    private boolean hasRoom(int nodes)
+    {
+        if (nodes <= nodeMove.length)
+            return true;
+        if (nodes > maxNodes)
+            return false;
+        int capacity = nodeMove.length;
+        while (capacity < nodes)
+            capacity *= 2;
+        nodeMove = Arrays.copyOf(nodeMove, capacity);
+        nodeParent = Arrays.copyOf(nodeParent, capacity);
+        nodeChild = Arrays.copyOf(nodeChild, capacity);
+        nodeSibling = Arrays.copyOf(nodeSibling, capacity);
+        nodeVisits = Arrays.copyOf(nodeVisits, capacity);
+        nodeWins = Arrays.copyOf(nodeWins, capacity);
+        nodeProven = Arrays.copyOf(nodeProven, capacity);
+        return true;
+    }
+
+    private int findChild(int node, int move)
+    {
+        for (int child = nodeChild[node]; child >= 0; child = nodeSibling[child])
+            if (nodeMove[child] == move)
+                return child;
+        return -1;
+    }
+
+    private void iterate(int first)
+    {
+        int node = 0;
+        int ply = 0;
+        undoTop = 0;
+        while (nodeChild[node] >= 0 && nodeProven[node] == 0 && ply < MAX_TREE_DEPTH)
+        {
+            node = select(node);
+            apply(first, nodeMove[node]);
+            first = nodeMove[node];
+            ply++;
+        }
+        if (ply > depth)
+            depth = ply;
+
+        float reward;
+        if (nodeProven[node] == 0 && nodeChild[node] == NOT_EXPANDED && (node == 0 || nodeVisits[node] >= PRIOR + EXPAND_VISITS)
+                && hasRoom(nbrOfNodes + nbrOfLetters))
+            expand(node, first);
+        if (nodeProven[node] != 0)
+            reward = nodeProven[node] == WIN ? 1 : 0;
+        else if (nodeChild[node] == NO_MOVES) {
+            //the player to move at the node lost
+            nodeProven[node] = WIN;
+            reward = 1;
+        }
+        else {
+            if (nodeChild[node] >= 0) {
+                //all the children are new, the first one is as good as any
+                node = nodeChild[node];
+                apply(first, nodeMove[node]);
+                first = nodeMove[node];
+            }
+            reward = playout(first);
+        }
+
+        boolean proven = nodeProven[node] != 0;
+        for (; node >= 0; node = nodeParent[node])
+        {
+            nodeVisits[node]++;
+            nodeWins[node] += reward;
+            reward = 1 - reward;
+            if (proven && nodeParent[node] >= 0)
+                proven = prove(nodeParent[node], nodeProven[node]);
+        }
+        while (undoTop > 0)
+        {
+            undoTop--;
+            pairCount[undoPair[undoTop]]++;
+            firstCount[undoFirst[undoTop]]++;
+        }
+    }
+
+    /**
+     * prove() updates the parent of a proven child: the player to move at
+     * the parent wins if one child is a win and loses if all of them are
+     * losses.
+     * @return boolean true if the parent is proven now
+     */
+    private boolean prove(int parent, byte child)
+    {
+        if (nodeProven[parent] != 0)
+            return false;
+        if (child == WIN) {
+            nodeProven[parent] = LOSS;
+            return true;
+        }
+        for (int c = nodeChild[parent]; c >= 0; c = nodeSibling[c])
+            if (nodeProven[c] != LOSS)
+                return false;
+        nodeProven[parent] = WIN;
+        return true;
+    }
+
+    private int select(int node)
+    {
+        //the square root of the log is the same for all the children
+        double explore = EXPLORATION * Math.sqrt(Math.log(nodeVisits[node] + 1));
+        int best = nodeChild[node];
+        double bestValue = -1;
+        for (int child = nodeChild[node]; child >= 0; child = nodeSibling[child])
+        {
+            if (nodeProven[child] == WIN)
+                return child;
+            if (nodeProven[child] == LOSS)
+                continue;
+            int visits = nodeVisits[child];
+            if (visits == 0)
+                return child;
+            double value = nodeWins[child] / visits + explore / Math.sqrt(visits);
+            if (value > bestValue) {
+                best = child;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    private void expand(int node, int first)
+    {
+        int base = first * nbrOfLetters;
+        int previous = -1;
+        int minCount = Integer.MAX_VALUE;
+        for (int e = edgeOffset[first]; e < edgeOffset[first + 1]; e++)
+        {
+            int last = edgeLast[e];
+            if (pairCount[base + last] == 0 || firstCount[last] <= (first == last ? 1 : 0))
+                continue;
+            minCount = Math.min(minCount, firstCount[last]);
+            int child = nbrOfNodes++;
+            nodeMove[child] = last;
+            nodeParent[child] = node;
+            nodeChild[child] = NOT_EXPANDED;
+            nodeSibling[child] = -1;
+            nodeVisits[child] = 0;
+            nodeWins[child] = 0;
+            nodeProven[child] = 0;
+            if (previous == -1)
+                nodeChild[node] = child;
+            else
+                nodeSibling[previous] = child;
+            previous = child;
+        }
+        if (previous == -1) {
+            nodeChild[node] = NO_MOVES;
+            return;
+        }
+        for (int child = nodeChild[node]; child >= 0; child = nodeSibling[child])
+        {
+            nodeVisits[child] = PRIOR;
+            nodeWins[child] = PRIOR * (float) minCount / firstCount[nodeMove[child]];
+        }
+    }
+
+    /**
+     * playout() plays a random game from the position where the player to
+     * move has to start with first.
+     * @return float 1 if the player that moved into the position won, 0 if
+     * they lost and 0.5 if the game went on for MAX_PLAYOUT plies
+     */
+    private float playout(int first)
+    {
+        for (int ply = 0; ply < MAX_PLAYOUT; ply++)
+        {
+            int last = nextInt(100) < GREEDY ? greedyMove(first) : randomMove(first);
+            if (last == -1)
+                return (ply & 1) == 0 ? 1 : 0;
+            apply(first, last);
+            first = last;
+        }
+        return 0.5f;
+    }
+
+    private int greedyMove(int first)
+    {
+        int base = first * nbrOfLetters;
+        int best = -1;
+        int bestCount = Integer.MAX_VALUE;
+        for (int e = edgeOffset[first]; e < edgeOffset[first + 1]; e++)
+        {
+            int last = edgeLast[e];
+            int count = firstCount[last];
+            if (count < bestCount && pairCount[base + last] > 0 && count > (first == last ? 1 : 0)) {
+                best = last;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    private int randomMove(int first)
+    {
+        int from = edgeOffset[first];
+        int nbrOfEdges = edgeOffset[first + 1] - from;
+        if (nbrOfEdges == 0)
+            return -1;
+        int base = first * nbrOfLetters;
+        for (int s = 0; s < SAMPLES; s++)
+        {
+            int last = edgeLast[from + nextInt(nbrOfEdges)];
+            if (pairCount[base + last] > 0 && firstCount[last] > (first == last ? 1 : 0))
+                return last;
+        }
+
+        //few legal moves are left, pick one of them uniformly
+        int picked = -1;
+        int seen = 0;
+        for (int e = from; e < from + nbrOfEdges; e++)
+        {
+            int last = edgeLast[e];
+            if (pairCount[base + last] == 0 || firstCount[last] <= (first == last ? 1 : 0))
+                continue;
+            if (nextInt(++seen) == 0)
+                picked = last;
+        }
+        return picked;
+    }
+
+    private void apply(int first, int last)
+    {
+        int pair = first * nbrOfLetters + last;
+        pairCount[pair]--;
+        firstCount[first]--;
+        undoPair[undoTop] = pair;
+        undoFirst[undoTop++] = first;
+    }
+
+    //xorshift64*, a bound below 2^31
+    private int nextInt(int bound)
+    {
+        random ^= random >>> 12;
+        random ^= random << 25;
+        random ^= random >>> 27;
+        return (int) ((((random * 0x2545F4914F6CDD1DL) >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * Returns the number of playouts of the last search on all threads.
+     */
+    @Override
+    public long getNodes()
+    {
+        return playouts;
+    }
+
+    /**
+     * Returns the deepest ply of the tree reached by the last search.
+     */
+    @Override
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    @Override
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * Returns the visits of the root that were kept from the last search.
+     */
+    public int getReusedVisits()
+    {
+        return reusedVisits;
+    }
+
+    public int getThreads()
+    {
+        return helpers.length + 1;
+    }
+
+    @Override
+    public void close()
+    {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 3) {
+                System.out.println("MctsSearch.main() expects the cities CSV file, the maximum number of threads and the millis per move.");
+                return;
+            }
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            int maxThreads = Integer.parseInt(args[1]);
+            long millis = Long.parseLong(args[2]);
+            System.out.println("MctsSearch.main()::" + Runtime.getRuntime().availableProcessors() + " processors available");
+
+            //the positions after the first city of a game
+            Random random = new Random(11);
+            GameSession[] positions = new GameSession[20];
+            int[] firsts = new int[positions.length];
+            for (int p = 0; p < positions.length; p++)
+            {
+                int id = random.nextInt(index.names.size());
+                positions[p] = index.newSession();
+                positions[p].removeCity(id);
+                firsts[p] = index.nameLast(id);
+            }
+
+            //warm up the JIT before anything is measured
+            MctsSearch warmUp = new MctsSearch(index, millis, 1);
+            for (int p = 0; p < positions.length; p++)
+                warmUp.bestMove(positions[p].pairCount, positions[p].firstCount, firsts[p]);
+
+            double baseRate = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+            {
+                MctsSearch search = new MctsSearch(index, millis, threads);
+                long totalPlayouts = 0;
+                long totalNanos = 0;
+                int totalDepth = 0;
+                for (int p = 0; p < positions.length; p++)
+                {
+                    search.bestMove(positions[p].pairCount, positions[p].firstCount, firsts[p]);
+                    totalPlayouts += search.getNodes();
+                    totalNanos += search.getNanos();
+                    totalDepth += search.getDepth();
+                }
+                double rate = totalPlayouts * 1e9 / totalNanos;
+                if (threads == 1)
+                    baseRate = rate;
+                System.out.println(String.format("threads=%d playouts/s=%.0f speedup=%.2f average depth=%.1f",
+                        threads, rate, rate / baseRate, totalDepth / (double) positions.length));
+                search.close();
+                if (threads >= maxThreads)
+                    break;
+            }
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.css.geographygame;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>Move Batch</h1>
+ * Greedy moves for many game states in one call, for analysis jobs that
+ * would otherwise create a {@link GameSession} and call nextMove() with a
+ * city name for every position.  A state is given as the name ids of the
+ * cities played so far, which is its delta to the shared, read only
+ * {@link CityIndex}, and the opponent city as a name id, so no names are
+ * looked up or lower cased and no session is copied.
+ * <p>
+ * The states are evaluated in chunks of CHUNK_SIZE.  Every chunk applies the
+ * delta of a state to one scratch copy of the counts, picks the move and
+ * takes the delta back, so the scratch arrays stay in the cache for the
+ * whole chunk and nothing is allocated per state.  Chunks can run on the
+ * common ForkJoinPool.
+ * </p>
+ * <p>
+ * The move is chosen like the greedy move of nextMove(): a city starting
+ * with the last letter of the opponent city and ending with the letter that
+ * has the fewest cities left, as long as the opponent still has a response.
+ * A session breaks ties between letters and picks among the cities of a
+ * pair in an order that depends on the moves that were played, which a
+ * state doesn't record, so the batch takes the lowest letter index and the
+ * lowest name id.  The response is always as good by the greedy rule but
+ * may be another city than the one a session would play.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.MoveBatch world-cities.csv nbrOfStates
+ * reports states per second for sessions, the batch and the parallel batch.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class MoveBatch {
+
+    public static final int CHUNK_SIZE = 256;
+    //responses that are not a name id
+    public static final int WINNER_INVALID = -1;
+    public static final int LOSER_NO_RESPONSE = -2;
+
+    private final CityIndex index;
+    private final int nbrOfLetters;
+
+    public MoveBatch(CityIndex _index)
+    {
+        index = _index;
+        nbrOfLetters = index.nbrOfLetters;
+    }
+
+    /**
+     * nextMoves() picks the response to the opponent city of every state.
+     * @param played name ids of the cities played before the opponent city, by state
+     * @param opponentIds name id of the opponent city, by state
+     * @param parallel true to evaluate the chunks on the common ForkJoinPool
+     * @return int[] name id of the response, WINNER_INVALID if the opponent
+     * city isn't available or LOSER_NO_RESPONSE, by state
+     */
+    public int[] nextMoves(int[][] played, int[] opponentIds, boolean parallel)
+    {
+        int[] responses = new int[opponentIds.length];
+        int nbrOfChunks = (opponentIds.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream chunks = IntStream.range(0, nbrOfChunks);
+        if (parallel)
+            chunks = chunks.parallel();
+        chunks.forEach(c -> nextMoves(played, opponentIds, responses, c * CHUNK_SIZE,
+                Math.min(opponentIds.length, (c + 1) * CHUNK_SIZE)));
+        return responses;
+    }
+
+    /**
+     * nextMoves() evaluates the states from (inclusive) to to (exclusive)
+     * with one scratch copy of the counts.
+     */
+    public void nextMoves(int[][] played, int[] opponentIds, int[] responses, int from, int to)
+    {
+        int[] remaining = index.copyMultiplicity();
+        int[] pairCount = index.pairCount.clone();
+        int[] firstCount = index.firstCount.clone();
+        for (int s = from; s < to; s++)
+        {
+            int[] delta = played[s];
+            for (int id : delta)
+                apply(id, -1, remaining, pairCount, firstCount);
+            int opponentId = opponentIds[s];
+            if (opponentId < 0 || remaining[opponentId] == 0)
+                responses[s] = WINNER_INVALID;
+            else {
+                apply(opponentId, -1, remaining, pairCount, firstCount);
+                responses[s] = pick(index.nameLast(opponentId), remaining, pairCount, firstCount);
+                apply(opponentId, 1, remaining, pairCount, firstCount);
+            }
+            for (int id : delta)
+                apply(id, 1, remaining, pairCount, firstCount);
+        }
+    }
+
+    private void apply(int id, int change, int[] remaining, int[] pairCount, int[] firstCount)
+    {
+        int first = index.nameFirst(id);
+        remaining[id] += change;
+        pairCount[first * nbrOfLetters + index.nameLast(id)] += change;
+        firstCount[first] += change;
+    }
+
+    private int pick(int first, int[] remaining, int[] pairCount, int[] firstCount)
+    {
+        int base = first * nbrOfLetters;
+        int best = -1;
+        for (int last = 0; last < nbrOfLetters; last++)
+        {
+            if (pairCount[base + last] == 0)
+                continue;
+            //the opponent needs any other city that starts with the last letter
+            if (firstCount[last] - (first == last ? 1 : 0) <= 0)
+                continue;
+            if (best == -1 || firstCount[last] < firstCount[best])
+                best = last;
+        }
+        if (best == -1)
+            return LOSER_NO_RESPONSE;
+        int pair = base + best;
+        for (int s = index.pairOffset(pair); ; s++)
+        {
+            int id = index.pairId(s);
+            if (remaining[id] > 0)
+                return id;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 2) {
+                System.out.println("MoveBatch.main() expects the cities CSV file and the number of states.");
+                return;
+            }
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            int nbrOfStates = Integer.parseInt(args[1]);
+
+            //states from greedy self-play games cut at a random move
+            Random random = new Random(16);
+            int[][] played = new int[nbrOfStates][];
+            int[] opponentIds = new int[nbrOfStates];
+            for (int s = 0; s < nbrOfStates; s++)
+            {
+                GameSession[] players = {index.newSession(), index.newSession()};
+                int[] moves = new int[64];
+                int id = random.nextInt(index.names.size());
+                players[0].removeCity(id);
+                moves[0] = id;
+                int n = 1;
+                for (int turn = 1; n < moves.length; turn = 1 - turn)
+                {
+                    String response = players[turn].nextMove(index.names.name(moves[n - 1]));
+                    if (response.startsWith("Winner") || response.startsWith("Loser"))
+                        break;
+                    moves[n++] = index.names.find(response);
+                }
+                int cut = 1 + random.nextInt(n);
+                played[s] = Arrays.copyOf(moves, cut - 1);
+                opponentIds[s] = moves[cut - 1];
+            }
+
+            for (int round = 0; round < 3; round++)
+            {
+                //one session per state replaying the delta, as the analysis jobs do today
+                long start = System.nanoTime();
+                int limit = Math.min(nbrOfStates, 2000);
+                for (int s = 0; s < limit; s++)
+                {
+                    GameSession session = index.newSession();
+                    for (int id : played[s])
+                        session.removeCity(id);
+                    session.nextMove(index.names.name(opponentIds[s]));
+                }
+                double sessionRate = limit * 1e9 / (System.nanoTime() - start);
+                start = System.nanoTime();
+                new MoveBatch(index).nextMoves(played, opponentIds, false);
+                double batchRate = nbrOfStates * 1e9 / (System.nanoTime() - start);
+                start = System.nanoTime();
+                new MoveBatch(index).nextMoves(played, opponentIds, true);
+                double parallelRate = nbrOfStates * 1e9 / (System.nanoTime() - start);
+                System.out.println(String.format("sessions %.0f states/s, batch %.0f states/s, parallel batch %.0f states/s on %d processors",
+                        sessionRate, batchRate, parallelRate, Runtime.getRuntime().availableProcessors()));
+            }
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
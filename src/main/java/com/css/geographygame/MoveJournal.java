@@ -0,0 +1,219 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * <h1>Move Journal</h1>
+ * Binary journal of the validated moves of one game, written by the
+ * controller and read back by {@link GameReplay}.  Every move is stored as
+ * the name id of the city in the {@link CityIndex} and the milliseconds since
+ * the previous move, both as variable length ints, so a move takes 2 to 4
+ * bytes.  Player1 plays the even moves and Player2 the odd moves.
+ * <p>
+ * The journal is written through one FileChannel that is extended to
+ * PREALLOCATE bytes when it is opened.  The header and every move are
+ * written at their position in the preallocated region as soon as they are
+ * known, so the zeros after the last move read as the end marker and the
+ * journal of a controller that was killed is read up to its last move with
+ * an empty result.  close() truncates the file to its length.
+ * </p>
+ * <p>
+ * File layout (big endian): magic, version, number of names and name
+ * checksum of the index, start time in epoch millis, the moves as
+ * varint(nameId + 1) varint(delta millis), then varint(0) and the result of
+ * the game as varint(length) and UTF-8 bytes.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class MoveJournal {
+
+    public static final int MAGIC = 0x47454F4A; //GEOJ
+    public static final int VERSION = 1;
+    public static final String SUFFIX = ".geoj";
+    private static final int PREALLOCATE = 64 * 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    //length of the journal written so far
+    private long position;
+    private long lastMillis;
+    private int nbrOfMoves;
+
+    /**
+     * Creates the journal file and writes the header.
+     * @param file
+     * @param index index the name ids refer to
+     * @throws IOException
+     */
+    public MoveJournal(File file, CityIndex index) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        channel.write(ByteBuffer.wrap(new byte[1]), PREALLOCATE - 1);
+        lastMillis = System.currentTimeMillis();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(index.getNames().size());
+        buffer.putLong(index.getNameChecksum());
+        buffer.putLong(lastMillis);
+        drain();
+    }
+
+    public int getNbrOfMoves()
+    {
+        return nbrOfMoves;
+    }
+
+    /**
+     * append() writes a validated move to the file.
+     * @param nameId
+     * @throws IOException
+     */
+    public void append(int nameId) throws IOException
+    {
+        long now = System.currentTimeMillis();
+        putVarint(buffer, nameId + 1);
+        putVarint(buffer, (int) Math.max(0, Math.min(Integer.MAX_VALUE, now - lastMillis)));
+        lastMillis = now;
+        nbrOfMoves++;
+        drain();
+    }
+
+    /**
+     * close() writes the end marker and the result and truncates the
+     * preallocated file to the length of the journal.
+     * @param result
+     * @throws IOException
+     */
+    public void close(String result) throws IOException
+    {
+        try {
+            byte[] bytes = (result == null ? "" : result).getBytes(StandardCharsets.UTF_8);
+            putVarint(buffer, 0);
+            putVarint(buffer, bytes.length);
+            drain();
+            ByteBuffer resultBytes = ByteBuffer.wrap(bytes);
+            while (resultBytes.hasRemaining())
+                position += channel.write(resultBytes, position);
+            channel.truncate(position);
+        } finally
+        {
+            channel.close();
+        }
+    }
+
+    //writes the buffer at the end of the journal
+    private void drain() throws IOException
+    {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        buffer.clear();
+    }
+
+    static void putVarint(ByteBuffer buf, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer buf)
+    {
+        int value = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            byte b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    //a game read back from a journal file
+    public static class Game
+    {
+        public String fileName;
+        public long startMillis;
+        public int[] moves;         //name ids, Player1 first
+        public int[] deltaMillis;
+        public String result;
+    }
+
+    /**
+     * read() reads a journal file written for the index.
+     * @param fileName
+     * @param index
+     * @return Game
+     * @throws IOException if the file is not a journal of this version or
+     * was written with a different index
+     */
+    public static Game read(String fileName, CityIndex index) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < 28 || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                throw new IOException(fileName + " is not a move journal of version " + VERSION);
+            if (buf.getInt() != index.getNames().size() || buf.getLong() != index.getNameChecksum())
+                throw new IOException(fileName + " was written with a different cities file");
+            Game game = new Game();
+            game.fileName = fileName;
+            game.startMillis = buf.getLong();
+            int[] moves = new int[64];
+            int[] deltas = new int[64];
+            int n = 0;
+            for (int id; (id = getVarint(buf)) != 0; n++)
+            {
+                if (n == moves.length) {
+                    moves = Arrays.copyOf(moves, n * 2);
+                    deltas = Arrays.copyOf(deltas, n * 2);
+                }
+                moves[n] = id - 1;
+                deltas[n] = getVarint(buf);
+            }
+            game.moves = Arrays.copyOf(moves, n);
+            game.deltaMillis = Arrays.copyOf(deltas, n);
+            byte[] bytes = new byte[getVarint(buf)];
+            buf.get(bytes);
+            game.result = new String(bytes, StandardCharsets.UTF_8);
+            return game;
+        } catch (BufferUnderflowException e)
+        {
+            throw new IOException(fileName + " is truncated");
+        }
+    }
+
+    /**
+     * list() returns the journal files of a directory in name order, or the
+     * file itself if it isn't a directory.
+     * @param path
+     * @return File[]
+     */
+    public static File[] list(String path)
+    {
+        File file = new File(path);
+        if (!file.isDirectory())
+            return new File[] {file};
+        File[] files = file.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+}
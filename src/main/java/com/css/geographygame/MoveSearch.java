@@ -0,0 +1,301 @@
+package com.css.geographygame;
+
+import java.util.Random;
+
+/**
+ * <h1>Move Search</h1>
+ * Lookahead search for the letter graph engine.  A position is the matrix of
+ * city counts by (first, last) letter pair and the letter the player to move
+ * has to start with.  A move takes one city of a pair with the current first
+ * letter and hands its last letter to the opponent.  A move is only legal if
+ * the opponent still has a city to respond with, and a player without a legal
+ * move loses.
+ * <p>
+ * bestMove() runs an iterative deepening negamax with alpha-beta pruning until
+ * the time budget of the move runs out, and returns the last letter of the
+ * best move of the deepest search that completed.  Positions are stored in a
+ * transposition table keyed by a Zobrist style hash: every pair has a random
+ * 64 bit key that is added once per city left in the pair, so removing a city
+ * updates the hash with one subtraction.  The current letter is xor'ed in
+ * with its own key.
+ * </p>
+ * <p>
+ * All arrays are allocated when the search is created, so the search doesn't
+ * allocate while it runs.  A search belongs to one {@link GameSession} and is
+ * not thread safe, but several searches can share one
+ * {@link TranspositionTable}, see {@link ParallelMoveSearch}.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class MoveSearch implements Strategy {
+
+    public static final int WIN = 1000000;
+    private static final int MAX_PLY = 64;
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+
+    private final int nbrOfLetters;
+    private final long budgetNanos;
+
+    //position being searched, copied from the session for every move
+    private final int[] pairCount;
+    private final int[] firstCount;
+    private long hash;
+
+    //last letters of the pairs with cities by first letter, counts only go
+    //down during a game so the pairs that were empty at the start are skipped
+    private final int[] edgeOffset;
+    private final int[] edgeLast;
+
+    private final long[] pairKeys;
+    private final long[] letterKeys;
+    private final TranspositionTable table;
+    //depth of the first iteration, helper threads start one ply deeper
+    private final int firstDepth;
+
+    //moves and move ordering scores by ply
+    private final int[][] moves;
+    private final int[][] scores;
+
+    private long deadline;
+    private boolean stopped;
+    private volatile boolean aborted;
+    private int rootMove;
+    private int rootScore;
+
+    //result and statistics of the last call to bestMove()
+    private int bestMove;
+    private long nodes;
+    private int depth;
+    private long nanos;
+
+    public MoveSearch(CityIndex index, long _budgetMillis)
+    {
+        this(index, _budgetMillis, new TranspositionTable(TranspositionTable.DEFAULT_BITS), 1);
+    }
+
+    public MoveSearch(CityIndex index, long _budgetMillis, TranspositionTable _table, int _firstDepth)
+    {
+        table = _table;
+        firstDepth = _firstDepth;
+        nbrOfLetters = index.nbrOfLetters;
+        budgetNanos = _budgetMillis * 1000000L;
+        pairCount = new int[nbrOfLetters * nbrOfLetters];
+        firstCount = new int[nbrOfLetters];
+        edgeOffset = new int[nbrOfLetters + 1];
+        int nbrOfEdges = 0;
+        for (int pair = 0; pair < pairCount.length; pair++)
+            if (index.pairCount[pair] > 0)
+                nbrOfEdges++;
+        edgeLast = new int[nbrOfEdges];
+        for (int first = 0, e = 0; first < nbrOfLetters; first++)
+        {
+            edgeOffset[first] = e;
+            for (int last = 0; last < nbrOfLetters; last++)
+                if (index.pairCount[first * nbrOfLetters + last] > 0)
+                    edgeLast[e++] = last;
+            edgeOffset[first + 1] = e;
+        }
+        Random random = new Random(0x47454F);
+        pairKeys = new long[pairCount.length];
+        for (int pair = 0; pair < pairKeys.length; pair++)
+            pairKeys[pair] = random.nextLong();
+        letterKeys = new long[nbrOfLetters];
+        for (int l = 0; l < nbrOfLetters; l++)
+            letterKeys[l] = random.nextLong();
+        moves = new int[MAX_PLY + 1][nbrOfLetters];
+        scores = new int[MAX_PLY + 1][nbrOfLetters];
+    }
+
+    /**
+     * bestMove() searches the position of the session where the player to
+     * move has to start with the letter first.
+     * @param _pairCount city counts by letter pair of the session
+     * @param _firstCount city counts by first letter of the session
+     * @param first dense index of the letter to start with
+     * @return int dense index of the last letter to play or -1 if no search completed
+     */
+    public int bestMove(int[] _pairCount, int[] _firstCount, int first)
+    {
+        long start = System.nanoTime();
+        System.arraycopy(_pairCount, 0, pairCount, 0, pairCount.length);
+        System.arraycopy(_firstCount, 0, firstCount, 0, firstCount.length);
+        hash = 0;
+        for (int pair = 0; pair < pairCount.length; pair++)
+            hash += pairCount[pair] * pairKeys[pair];
+        deadline = start + budgetNanos;
+        stopped = false;
+        nodes = 0;
+        depth = 0;
+
+        bestMove = -1;
+        for (int d = firstDepth; d <= MAX_PLY; d++)
+        {
+            rootMove = -1;
+            negamax(first, d, -WIN - 1, WIN + 1, 0);
+            if (stopped)
+                break;
+            bestMove = rootMove;
+            depth = d;
+            //stop once the result of the game is known
+            if (bestMove == -1 || Math.abs(rootScore) >= WIN - MAX_PLY)
+                break;
+        }
+        nanos = System.nanoTime() - start;
+        return bestMove;
+    }
+
+    private int negamax(int first, int remainingDepth, int alpha, int beta, int ply)
+    {
+        if ((++nodes & 1023) == 0 && (aborted || System.nanoTime() > deadline))
+            stopped = true;
+        if (stopped)
+            return 0;
+
+        long key = hash ^ letterKeys[first];
+        int ttMove = -1;
+        long data = remainingDepth > 0 ? table.probe(key) : 0;
+        if (data != 0)
+        {
+            ttMove = (int) ((data >>> 42) & 0xFFFF) - 1;
+            if (ply > 0 && (int) ((data >>> 32) & 0xFF) >= remainingDepth)
+            {
+                int score = fromTable((int) data, ply);
+                int flag = (int) ((data >>> 40) & 3);
+                if (flag == EXACT || (flag == LOWER && score >= beta) || (flag == UPPER && score <= alpha))
+                    return score;
+            }
+        }
+
+        //generate the legal moves ordered by the fewest responses for the opponent
+        int[] mv = moves[ply];
+        int[] sc = scores[ply];
+        int nbrOfMoves = 0;
+        int base = first * nbrOfLetters;
+        for (int e = edgeOffset[first]; e < edgeOffset[first + 1]; e++)
+        {
+            int last = edgeLast[e];
+            if (pairCount[base + last] == 0)
+                continue;
+            int responses = firstCount[last] - (first == last ? 1 : 0);
+            if (responses <= 0)
+                continue;
+            int order = last == ttMove ? -1 : responses;
+            int i = nbrOfMoves++;
+            for (; i > 0 && sc[i - 1] > order; i--) {
+                mv[i] = mv[i - 1];
+                sc[i] = sc[i - 1];
+            }
+            mv[i] = last;
+            sc[i] = order;
+        }
+        if (nbrOfMoves == 0)
+            return -WIN + ply;
+        //the more moves are left to the player the harder they are to trap
+        if (remainingDepth == 0)
+            return nbrOfMoves;
+
+        int alphaIn = alpha;
+        int bestScore = -WIN - 1;
+        int bestLast = -1;
+        for (int i = 0; i < nbrOfMoves; i++)
+        {
+            int last = mv[i];
+            int pair = base + last;
+            pairCount[pair]--;
+            firstCount[first]--;
+            hash -= pairKeys[pair];
+            int score = -negamax(last, remainingDepth - 1, -beta, -alpha, ply + 1);
+            pairCount[pair]++;
+            firstCount[first]++;
+            hash += pairKeys[pair];
+            if (stopped)
+                return 0;
+            if (score > bestScore) {
+                bestScore = score;
+                bestLast = last;
+                if (ply == 0) {
+                    rootMove = last;
+                    rootScore = score;
+                }
+            }
+            if (score > alpha)
+                alpha = score;
+            if (alpha >= beta)
+                break;
+        }
+
+        int flag = bestScore <= alphaIn ? UPPER : bestScore >= beta ? LOWER : EXACT;
+        table.store(key, (toTable(bestScore, ply) & 0xFFFFFFFFL) | ((long) remainingDepth << 32)
+                | ((long) flag << 40) | ((long) (bestLast + 1) << 42));
+        return bestScore;
+    }
+
+    //win and loss scores are stored relative to the position so they can be reused at any ply
+    private static int toTable(int score, int ply)
+    {
+        if (score >= WIN - MAX_PLY * 2)
+            return score + ply;
+        if (score <= -WIN + MAX_PLY * 2)
+            return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply)
+    {
+        if (score >= WIN - MAX_PLY * 2)
+            return score - ply;
+        if (score <= -WIN + MAX_PLY * 2)
+            return score + ply;
+        return score;
+    }
+
+    /**
+     * abort() stops a search that is running on another thread.
+     */
+    public void abort()
+    {
+        aborted = true;
+    }
+
+    /**
+     * clearAbort() has to be called before a search that was aborted is
+     * started again.
+     */
+    public void clearAbort()
+    {
+        aborted = false;
+    }
+
+    /**
+     * close() stops the threads of a parallel search once the session is
+     * over, a single threaded search has nothing to release.
+     */
+    public void close()
+    {
+    }
+
+    public int getBestMove()
+    {
+        return bestMove;
+    }
+
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public long getNanos()
+    {
+        return nanos;
+    }
+}
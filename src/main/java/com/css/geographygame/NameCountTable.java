@@ -0,0 +1,104 @@
+package com.css.geographygame;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Name Count Table</h1>
+ * Counts per name id in an open addressing hash table of primitive ints.
+ * The controller keeps one table per match for the cities that were played,
+ * which stays small next to the shared {@link CityIndex} and doesn't box or
+ * allocate on a lookup.  The table only allocates when it doubles.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class NameCountTable {
+
+    private static final int EMPTY = -1;
+
+    private int[] ids;
+    private int[] counts;
+    private int mask;
+    private int size;
+
+    public NameCountTable(int _capacity)
+    {
+        int capacity = Integer.highestOneBit(Math.max(_capacity, 2) - 1) * 2;
+        ids = new int[capacity];
+        Arrays.fill(ids, EMPTY);
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int get(int id)
+    {
+        for (int slot = slot(id); ; slot = (slot + 1) & mask)
+        {
+            if (ids[slot] == EMPTY)
+                return 0;
+            if (ids[slot] == id)
+                return counts[slot];
+        }
+    }
+
+    /**
+     * incrementBelow() adds one to the count of the id if the count is below
+     * the limit.
+     * @param id name id
+     * @param limit maximum count of the id
+     * @return boolean false if the count already reached the limit
+     */
+    public boolean incrementBelow(int id, int limit)
+    {
+        int slot = slot(id);
+        for (; ids[slot] != EMPTY; slot = (slot + 1) & mask)
+        {
+            if (ids[slot] == id) {
+                if (counts[slot] >= limit)
+                    return false;
+                counts[slot]++;
+                return true;
+            }
+        }
+        if (limit <= 0)
+            return false;
+        ids[slot] = id;
+        counts[slot] = 1;
+        //keep the table at most half full so probes stay short
+        if (++size * 2 > ids.length)
+            grow();
+        return true;
+    }
+
+    private int slot(int id)
+    {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void grow()
+    {
+        int[] oldIds = ids;
+        int[] oldCounts = counts;
+        ids = new int[oldIds.length * 2];
+        Arrays.fill(ids, EMPTY);
+        counts = new int[ids.length];
+        mask = ids.length - 1;
+        for (int i = 0; i < oldIds.length; i++)
+        {
+            if (oldIds[i] == EMPTY)
+                continue;
+            int slot = slot(oldIds[i]);
+            while (ids[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            ids[slot] = oldIds[i];
+            counts[slot] = oldCounts[i];
+        }
+    }
+}
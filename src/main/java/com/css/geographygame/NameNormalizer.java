@@ -0,0 +1,196 @@
+package com.css.geographygame;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * <h1>Name Normalizer</h1>
+ * Normalizes city names the same way in the loaders, the players and the
+ * controller so a name typed by the opponent finds the name stored at load
+ * time.  The case is folded with the Unicode rules, i.e. "ß" folds to "ss"
+ * and a final sigma to a sigma, and names are composed to NFC so a letter
+ * written as a base letter and a combining mark is the same as the
+ * precomposed letter.  With names.strip.diacritics the marks are removed,
+ * so "são paulo" and "sao paulo" are one name and a city ending with "é"
+ * is answered by a city starting with "e".  The setting changes the names
+ * and the letters of the game, so the players and the controller of a
+ * match have to use the same value.  Every {@link CityIndex},
+ * {@link CityTrie} and {@link ShardedCityIndex} keeps the normalizer it
+ * was built with, so players with different settings can share a JVM.
+ * <p>
+ * Lower case ASCII names, almost all of the cities file, are returned as
+ * they are without any allocation.  Letters are code points and not chars,
+ * so a letter outside the BMP is not split into its surrogates, and every
+ * letter is interned to a small symbol id that the engines use to index
+ * their arrays instead of keying maps by one letter strings.  The symbols
+ * belong to the normalizer, structures that share their symbols have to
+ * share the normalizer.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class NameNormalizer {
+
+    private final boolean stripDiacritics;
+
+    //letter -> symbol + 1 for the BMP, 0 if not interned yet, the array is replaced when it grows
+    private volatile int[] bmpSymbols = new int[128];
+    private final HashMap<Integer, Integer> supplementarySymbols = new HashMap<>();
+    private int nbrOfSymbols;
+
+    /**
+     * Creates a normalizer that keeps the diacritics.
+     */
+    public NameNormalizer()
+    {
+        this(false);
+    }
+
+    public NameNormalizer(boolean _stripDiacritics)
+    {
+        stripDiacritics = _stripDiacritics;
+    }
+
+    /**
+     * fromProperties() creates a normalizer from prefix + names.strip.diacritics.
+     * @param props
+     * @param prefix
+     * @return NameNormalizer
+     */
+    public static NameNormalizer fromProperties(Properties props, String prefix)
+    {
+        return new NameNormalizer(Boolean.parseBoolean(props.getProperty(prefix + "names.strip.diacritics", "false")));
+    }
+
+    public boolean isStripDiacritics()
+    {
+        return stripDiacritics;
+    }
+
+    /**
+     * normalize() returns the name with its case folded, composed or
+     * stripped of diacritics, the name itself if it is already normalized.
+     * @param name
+     * @return String
+     */
+    public String normalize(String name)
+    {
+        if (name == null)
+            return null;
+        int length = name.length();
+        int upper = -1;
+        for (int i = 0; i < length; i++)
+        {
+            char ch = name.charAt(i);
+            if (ch >= 0x80)
+                return normalizeUnicode(name);
+            if (upper == -1 && ch >= 'A' && ch <= 'Z')
+                upper = i;
+        }
+        if (upper == -1)
+            return name;
+        char[] chars = name.toCharArray();
+        for (int i = upper; i < length; i++)
+            if (chars[i] >= 'A' && chars[i] <= 'Z')
+                chars[i] += 'a' - 'A';
+        return new String(chars);
+    }
+
+    private String normalizeUnicode(String name)
+    {
+        String folded = fold(name);
+        if (!stripDiacritics)
+            return Normalizer.normalize(folded, Normalizer.Form.NFC);
+
+        String decomposed = Normalizer.normalize(folded, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++)
+        {
+            char ch = decomposed.charAt(i);
+            int type = Character.getType(ch);
+            if (type != Character.NON_SPACING_MARK && type != Character.COMBINING_SPACING_MARK
+                    && type != Character.ENCLOSING_MARK)
+                sb.append(ch);
+        }
+        //compose again, i.e. for Hangul syllables that NFD splits into letters that are not marks
+        return Normalizer.normalize(sb, Normalizer.Form.NFC);
+    }
+
+    //upper then lower case folds the letters that have more than one lower case form,
+    //except the Turkish dotless i which would turn into an i
+    private static String fold(String name)
+    {
+        int dotless = name.indexOf('\u0131');
+        if (dotless == -1)
+            return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        return fold(name.substring(0, dotless)) + '\u0131' + fold(name.substring(dotless + 1));
+    }
+
+    /**
+     * Returns the first letter of a normalized name as a code point.
+     */
+    public static int firstLetter(String name)
+    {
+        return name.codePointAt(0);
+    }
+
+    /**
+     * Returns the last letter of a normalized name as a code point.
+     */
+    public static int lastLetter(String name)
+    {
+        return name.codePointBefore(name.length());
+    }
+
+    /**
+     * symbol() returns the symbol id of the letter, -1 if it was never
+     * interned.  It doesn't lock or allocate for letters in the BMP.
+     * @param letter code point
+     * @return int
+     */
+    public int symbol(int letter)
+    {
+        if (Character.isBmpCodePoint(letter)) {
+            int[] symbols = bmpSymbols;
+            return letter < symbols.length ? symbols[letter] - 1 : -1;
+        }
+        synchronized (supplementarySymbols) {
+            Integer symbol = supplementarySymbols.get(letter);
+            return symbol == null ? -1 : symbol;
+        }
+    }
+
+    /**
+     * intern() returns the symbol id of the letter and assigns the next one
+     * if the letter doesn't have one yet.  Ids start at 0 and are dense.
+     * @param letter code point
+     * @return int
+     */
+    public int intern(int letter)
+    {
+        int symbol = symbol(letter);
+        if (symbol != -1)
+            return symbol;
+        synchronized (supplementarySymbols) {
+            symbol = symbol(letter);
+            if (symbol != -1)
+                return symbol;
+            symbol = nbrOfSymbols++;
+            if (Character.isBmpCodePoint(letter)) {
+                int[] symbols = bmpSymbols;
+                if (letter >= symbols.length)
+                    symbols = Arrays.copyOf(symbols, Math.min(0x10000, Math.max(letter + 1, symbols.length * 2)));
+                symbols[letter] = symbol + 1;
+                bmpSymbols = symbols;
+            }
+            else
+                supplementarySymbols.put(letter, symbol);
+            return symbol;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.css.geographygame;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <h1>Name Table</h1>
+ * Maps city names to dense name ids with an open addressing hash table of
+ * ids keyed by String.hashCode().  The table can be built in memory or read
+ * from a memory mapped index snapshot, in which case the names stay UTF-8
+ * encoded in the mapped file and are only decoded the first time they are
+ * needed.
+ * <p>
+ * The table is read only once it is created and can be shared between
+ * threads.  Two threads may decode the same lazy name at the same time, which
+ * only costs a duplicate String since both decode to the same value.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class NameTable {
+
+    private static final int EMPTY = -1;
+
+    private final String[] names;
+    private final IntBuffer table;
+    private final int mask;
+    //only set when the names are read lazily from a snapshot
+    private final IntBuffer offsets;
+    private final ByteBuffer blob;
+
+    private NameTable(String[] _names, IntBuffer _table, IntBuffer _offsets, ByteBuffer _blob)
+    {
+        names = _names;
+        table = _table;
+        mask = _table.capacity() - 1;
+        offsets = _offsets;
+        blob = _blob;
+    }
+
+    public static NameTable build(String[] names)
+    {
+        int capacity = Integer.highestOneBit(Math.max(names.length, 1) * 2) * 2;
+        int[] table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+        for (int id = 0; id < names.length; id++)
+        {
+            int slot = names[id].hashCode() & (capacity - 1);
+            while (table[slot] != EMPTY)
+                slot = (slot + 1) & (capacity - 1);
+            table[slot] = id;
+        }
+        return new NameTable(names, IntBuffer.wrap(table), null, null);
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+
+    public String name(int id)
+    {
+        String name = names[id];
+        if (name == null) {
+            int start = offsets.get(id);
+            byte[] bytes = new byte[offsets.get(id + 1) - start];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = blob.get(start + i);
+            name = new String(bytes, StandardCharsets.UTF_8);
+            names[id] = name;
+        }
+        return name;
+    }
+
+    /**
+     * find() returns the id of the name or -1 if the name isn't in the table.
+     * @param name
+     * @return int
+     */
+    public int find(String name)
+    {
+        for (int slot = name.hashCode() & mask; ; slot = (slot + 1) & mask)
+        {
+            int id = table.get(slot);
+            if (id == EMPTY)
+                return -1;
+            if (name(id).equals(name))
+                return id;
+        }
+    }
+
+    /**
+     * Snapshot layout: size, table capacity, blob length, offsets[size + 1],
+     * table[capacity], UTF-8 blob padded to a multiple of 4 bytes.
+     */
+    public void writeSnapshot(DataOutputStream out) throws IOException
+    {
+        byte[][] encoded = new byte[names.length][];
+        int blobLength = 0;
+        for (int id = 0; id < names.length; id++)
+        {
+            encoded[id] = name(id).getBytes(StandardCharsets.UTF_8);
+            blobLength += encoded[id].length;
+        }
+        out.writeInt(names.length);
+        out.writeInt(table.capacity());
+        out.writeInt(blobLength);
+        int offset = 0;
+        for (int id = 0; id < names.length; id++)
+        {
+            out.writeInt(offset);
+            offset += encoded[id].length;
+        }
+        out.writeInt(offset);
+        for (int slot = 0; slot < table.capacity(); slot++)
+            out.writeInt(table.get(slot));
+        for (byte[] bytes : encoded)
+            out.write(bytes);
+        for (int pad = blobLength; pad % 4 != 0; pad++)
+            out.write(0);
+    }
+
+    public static NameTable readSnapshot(ByteBuffer buf)
+    {
+        int size = buf.getInt();
+        int capacity = buf.getInt();
+        int blobLength = buf.getInt();
+        IntBuffer offsets = CityIndexSnapshot.sliceInts(buf, size + 1);
+        IntBuffer table = CityIndexSnapshot.sliceInts(buf, capacity);
+        ByteBuffer blob = CityIndexSnapshot.slice(buf, (blobLength + 3) & ~3);
+        return new NameTable(new String[size], table, offsets, blob);
+    }
+}
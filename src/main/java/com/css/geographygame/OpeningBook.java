@@ -0,0 +1,273 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <h1>Opening Book</h1>
+ * Moves for the first plies of a game, computed offline with the
+ * {@link MoveSearch} in self-play and looked up by the graph engine before it
+ * searches.  A position is keyed by the sum of a random 64 bit key of every
+ * city played so far, so the order the cities were played in doesn't matter,
+ * xor'ed with the key of the letter the player to move has to start with.
+ * The value is the name id of the city to play.
+ * <p>
+ * The book is an open addressing table of keys and name ids that is memory
+ * mapped from the book file, so loading it doesn't read the table and a book
+ * move is a single probe.  It is read only and shared by every session of
+ * the player.
+ * </p>
+ * <p>
+ * File layout (big endian): magic, version, number of names and name
+ * checksum of the index, plies, table capacity, keys[capacity],
+ * name ids[capacity].
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.OpeningBook world-cities.csv world-cities.book plies searchMillis games [startCity]
+ * plays games from random start cities, or all from startCity, where either
+ * side plays a random legal move one time in four to reach more positions,
+ * and stores the search move of every other position of the first plies.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class OpeningBook {
+
+    public static final int MAGIC = 0x47454F42; //GEOB
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 28;
+
+    private final int plies;
+    private final LongBuffer keys;
+    private final IntBuffer ids;
+    private final int mask;
+
+    private OpeningBook(int _plies, LongBuffer _keys, IntBuffer _ids)
+    {
+        plies = _plies;
+        keys = _keys;
+        ids = _ids;
+        mask = _keys.capacity() - 1;
+    }
+
+    /**
+     * Returns the number of cities played up to which the book has moves.
+     */
+    public int getPlies()
+    {
+        return plies;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (int slot = 0; slot <= mask; slot++)
+            if (keys.get(slot) != 0)
+                size++;
+        return size;
+    }
+
+    /**
+     * lookup() returns the name id of the book move or -1 if the position
+     * isn't in the book.
+     * @param key position key, see GameSession.positionKey()
+     * @return int
+     */
+    public int lookup(long key)
+    {
+        key = nonZero(key);
+        for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask)
+        {
+            long k = keys.get(slot);
+            if (k == key)
+                return ids.get(slot);
+            if (k == 0)
+                return -1;
+        }
+    }
+
+    static long cityKey(int id)
+    {
+        return mix(id + 0x9E3779B97F4A7C15L);
+    }
+
+    static long letterKey(int letter)
+    {
+        return mix(~letter * 0xC2B2AE3D27D4EB4FL);
+    }
+
+    //finalizer of SplitMix64
+    static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    //0 marks an empty slot
+    private static long nonZero(long key)
+    {
+        return key == 0 ? 1 : key;
+    }
+
+    /**
+     * build() plays the self-play games and returns the positions and
+     * their moves.
+     * @param index
+     * @param plies number of cities played up to which moves are stored
+     * @param searchMillis time budget of the search per move
+     * @param games number of games
+     * @param startCity start city of every game, null for random start cities
+     * @return Map position key to name id
+     * @throws IllegalArgumentException if the start city isn't in the index
+     */
+    public static Map<Long, Integer> build(CityIndex index, int plies, long searchMillis, int games, String startCity)
+    {
+        Map<Long, Integer> moves = new HashMap<>();
+        MoveSearch search = new MoveSearch(index, searchMillis);
+        Random random = new Random(17);
+        int startId = startCity == null ? -1 : index.names.find(index.normalizer.normalize(startCity));
+        if (startCity != null && startId == -1)
+            throw new IllegalArgumentException("OpeningBook.build()::Unknown start city " + startCity);
+        int[] candidates = new int[index.nbrOfLetters];
+        for (int g = 0; g < games; g++)
+        {
+            GameSession session = index.newSession();
+            int id = startId >= 0 ? startId : random.nextInt(index.names.size());
+            session.removeCity(id);
+            for (int ply = 1; ply <= plies; ply++)
+            {
+                int first = index.nameLast(id);
+                long key = session.positionKey(first);
+                if (random.nextInt(4) == 0) {
+                    //a random legal move, not stored
+                    int n = 0;
+                    for (int last = 0; last < index.nbrOfLetters; last++)
+                        if (session.cityForPair(first, last) >= 0
+                                && session.firstCount[last] - (first == last ? 1 : 0) > 0)
+                            candidates[n++] = last;
+                    if (n == 0)
+                        break;
+                    id = session.cityForPair(first, candidates[random.nextInt(n)]);
+                }
+                else {
+                    Integer known = moves.get(nonZero(key));
+                    if (known != null)
+                        id = known;
+                    else {
+                        int last = search.bestMove(session.pairCount, session.firstCount, first);
+                        if (last == -1)
+                            break;
+                        id = session.cityForPair(first, last);
+                        moves.put(nonZero(key), id);
+                    }
+                }
+                session.removeCity(id);
+            }
+        }
+        return moves;
+    }
+
+    public static void save(String fileName, CityIndex index, int plies, Map<Long, Integer> moves) throws IOException
+    {
+        int capacity = Integer.highestOneBit(Math.max(moves.size(), 1) * 2) * 2;
+        long[] keys = new long[capacity];
+        int[] ids = new int[capacity];
+        for (Map.Entry<Long, Integer> entry : moves.entrySet())
+        {
+            long key = entry.getKey();
+            int slot = (int) mix(key) & (capacity - 1);
+            while (keys[slot] != 0)
+                slot = (slot + 1) & (capacity - 1);
+            keys[slot] = key;
+            ids[slot] = entry.getValue();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + capacity * 12);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(index.getNames().size());
+        buf.putLong(index.getNameChecksum());
+        buf.putInt(plies);
+        buf.putInt(capacity);
+        buf.asLongBuffer().put(keys);
+        ((Buffer) buf).position(HEADER_SIZE + capacity * 8);
+        buf.asIntBuffer().put(ids);
+        ((Buffer) buf).rewind();
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining())
+                channel.write(buf);
+        }
+    }
+
+    /**
+     * load() maps a book file.  Returns null if the file doesn't exist or
+     * was not built for this index.
+     * @param fileName
+     * @param index
+     * @return OpeningBook
+     */
+    public static OpeningBook load(String fileName, CityIndex index)
+    {
+        if (fileName == null || fileName.isEmpty() || !new File(fileName).exists())
+            return null;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                GameLog.warn("OpeningBook.load()::" + fileName + " is not an opening book of version " + VERSION);
+                return null;
+            }
+            if (buf.getInt() != index.getNames().size() || buf.getLong() != index.getNameChecksum()) {
+                GameLog.warn("OpeningBook.load()::" + fileName + " was built for a different cities file");
+                return null;
+            }
+            int plies = buf.getInt();
+            int capacity = buf.getInt();
+            if (Integer.bitCount(capacity) != 1 || buf.remaining() < capacity * 12L) {
+                GameLog.warn("OpeningBook.load()::" + fileName + " is truncated");
+                return null;
+            }
+            LongBuffer keys = CityIndexSnapshot.slice(buf, capacity * 8).asLongBuffer();
+            IntBuffer ids = CityIndexSnapshot.sliceInts(buf, capacity);
+            return new OpeningBook(plies, keys, ids);
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 5) {
+                System.out.println("OpeningBook.main() expects the cities CSV file, the book file, the plies, the search millis, the number of games and optionally the start city.");
+                return;
+            }
+            long start = System.currentTimeMillis();
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            int plies = Integer.parseInt(args[2]);
+            Map<Long, Integer> moves = build(index, plies, Long.parseLong(args[3]), Integer.parseInt(args[4]),
+                    args.length > 5 ? args[5] : null);
+            save(args[1], index, plies, moves);
+            System.out.println("OpeningBook.main()::Stored " + moves.size() + " positions up to " + plies + " plies in "
+                    + args[1] + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
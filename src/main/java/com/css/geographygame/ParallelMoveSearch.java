@@ -0,0 +1,167 @@
+package com.css.geographygame;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <h1>Parallel Move Search</h1>
+ * Runs the {@link MoveSearch} on several threads with lazy SMP.  The calling
+ * thread and the helper threads of a ForkJoinPool all search the same root
+ * position and share one lock free {@link TranspositionTable}, so every
+ * position one thread finishes cuts the search of the others.  Every other
+ * helper starts its iterations one ply deeper so the threads don't search in
+ * lock step.  The move of the deepest iteration that completed on any thread
+ * is played.
+ * <p>
+ * Usage: java com.css.geographygame.ParallelMoveSearch world-cities.csv maxThreads millis
+ * reports the positions per second and the speedup over one thread for
+ * 1, 2, 4 ... maxThreads threads.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class ParallelMoveSearch extends MoveSearch {
+
+    private final ForkJoinPool pool;
+    private final MoveSearch[] helpers;
+    private final ForkJoinTask<?>[] tasks;
+
+    private long nodes;
+    private int depth;
+    private long nanos;
+
+    public ParallelMoveSearch(CityIndex index, long _budgetMillis, int _threads)
+    {
+        this(index, _budgetMillis, _threads, new TranspositionTable(TranspositionTable.DEFAULT_BITS));
+    }
+
+    private ParallelMoveSearch(CityIndex index, long _budgetMillis, int _threads, TranspositionTable table)
+    {
+        super(index, _budgetMillis, table, 1);
+        pool = new ForkJoinPool(Math.max(1, _threads - 1));
+        helpers = new MoveSearch[_threads - 1];
+        tasks = new ForkJoinTask<?>[_threads - 1];
+        for (int i = 0; i < helpers.length; i++)
+            helpers[i] = new MoveSearch(index, _budgetMillis, table, 1 + (i + 1) % 2);
+    }
+
+    @Override
+    public int bestMove(int[] _pairCount, int[] _firstCount, int first)
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < helpers.length; i++)
+        {
+            MoveSearch helper = helpers[i];
+            helper.clearAbort();
+            tasks[i] = pool.submit(() -> helper.bestMove(_pairCount, _firstCount, first));
+        }
+        int best = super.bestMove(_pairCount, _firstCount, first);
+
+        //the helpers stop when this thread has finished
+        for (MoveSearch helper : helpers)
+            helper.abort();
+        nodes = super.getNodes();
+        depth = super.getDepth();
+        for (int i = 0; i < helpers.length; i++)
+        {
+            tasks[i].join();
+            nodes += helpers[i].getNodes();
+            if (helpers[i].getDepth() > depth && helpers[i].getBestMove() != -1) {
+                depth = helpers[i].getDepth();
+                best = helpers[i].getBestMove();
+            }
+        }
+        nanos = System.nanoTime() - start;
+        return best;
+    }
+
+    @Override
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    @Override
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    @Override
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    public int getThreads()
+    {
+        return helpers.length + 1;
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 3) {
+                System.out.println("ParallelMoveSearch.main() expects the cities CSV file, the maximum number of threads and the millis per move.");
+                return;
+            }
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            int maxThreads = Integer.parseInt(args[1]);
+            long millis = Long.parseLong(args[2]);
+            System.out.println("ParallelMoveSearch.main()::" + Runtime.getRuntime().availableProcessors() + " processors available");
+
+            //the positions after the first city of a game
+            Random random = new Random(11);
+            GameSession[] positions = new GameSession[20];
+            int[] firsts = new int[positions.length];
+            for (int p = 0; p < positions.length; p++)
+            {
+                int id = random.nextInt(index.names.size());
+                positions[p] = index.newSession();
+                positions[p].removeCity(id);
+                firsts[p] = index.nameLast(id);
+            }
+
+            //warm up the JIT before anything is measured
+            MoveSearch warmUp = new MoveSearch(index, millis);
+            for (int p = 0; p < positions.length; p++)
+                warmUp.bestMove(positions[p].pairCount, positions[p].firstCount, firsts[p]);
+
+            double baseNps = 0;
+            for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+            {
+                MoveSearch search = threads == 1 ? new MoveSearch(index, millis) : new ParallelMoveSearch(index, millis, threads);
+                long totalNodes = 0;
+                long totalNanos = 0;
+                int totalDepth = 0;
+                for (int p = 0; p < positions.length; p++)
+                {
+                    search.bestMove(positions[p].pairCount, positions[p].firstCount, firsts[p]);
+                    totalNodes += search.getNodes();
+                    totalNanos += search.getNanos();
+                    totalDepth += search.getDepth();
+                }
+                double nps = totalNodes * 1e9 / totalNanos;
+                if (threads == 1)
+                    baseNps = nps;
+                System.out.println(String.format("threads=%d positions/s=%.0f speedup=%.2f average depth=%.1f",
+                        threads, nps, nps / baseNps, totalDepth / (double) positions.length));
+                search.close();
+                if (threads >= maxThreads)
+                    break;
+            }
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.css.geographygame;
+
+import java.util.Random;
+
+/**
+ * <h1>Random Strategy</h1>
+ * Plays a random legal move: a pair with cities left from the current
+ * letter whose last letter leaves the opponent a response.  Every legal last
+ * letter is equally likely, whatever the number of cities of its pair.  The
+ * baseline the other strategies are measured against in the
+ * {@link SelfPlayArena}.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class RandomStrategy implements Strategy {
+
+    private final int nbrOfLetters;
+    private final Random random;
+
+    public RandomStrategy(CityIndex index)
+    {
+        this(index, new Random());
+    }
+
+    public RandomStrategy(CityIndex index, Random _random)
+    {
+        nbrOfLetters = index.nbrOfLetters;
+        random = _random;
+    }
+
+    @Override
+    public int bestMove(int[] pairCount, int[] firstCount, int first)
+    {
+        //reservoir sample of the legal moves, one pass and no allocation
+        int picked = -1;
+        int seen = 0;
+        for (int last = 0; last < nbrOfLetters; last++)
+        {
+            if (pairCount[first * nbrOfLetters + last] == 0 || firstCount[last] <= (first == last ? 1 : 0))
+                continue;
+            if (random.nextInt(++seen) == 0)
+                picked = last;
+        }
+        return picked;
+    }
+}
@@ -0,0 +1,181 @@
+package com.css.geographygame;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>Self Play Arena</h1>
+ * Plays games between two {@link Strategy} implementations in one JVM on a
+ * shared {@link CityIndex}, to weigh the strength of a strategy against its
+ * cost.  Every game plays two sessions against each other through
+ * {@link GameSession#nextMove}, the same path as a real player.  The start
+ * city of game g is picked by a generator seeded with the seed and g, and
+ * the strategies take turns naming it, so a run with the same seed plays the
+ * same openings whatever the number of threads.
+ * <p>
+ * The games are spread over threads that each take the next game number
+ * from a counter and keep their own pair of strategies, as the searches
+ * aren't thread safe.  The win rate of the first strategy is reported with
+ * its 95% Wilson score interval, with the moves per second of all threads
+ * and the latency of nextMove() for each strategy.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.SelfPlayArena world-cities.csv strategyA strategyB games [threads [seed]]
+ * where a strategy is a name of {@link Strategy#create}, optionally followed
+ * by :millis for the searches, e.g. greedy, random, alphabeta:20 or mcts:20.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class SelfPlayArena {
+
+    private static final double Z_95 = 1.96;
+
+    private final CityIndex index;
+    private final String[] names = new String[2];
+    private final long[] millis = new long[2];
+    private final int games;
+    private final long seed;
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private final LongAdder[] wins = { new LongAdder(), new LongAdder() };
+    //wins of the strategy that named the start city
+    private final LongAdder starterWins = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LatencyHistogram[] latency = new LatencyHistogram[2];
+
+    public SelfPlayArena(CityIndex _index, String strategyA, String strategyB, int _games, long _seed)
+    {
+        index = _index;
+        games = _games;
+        seed = _seed;
+        String[] specs = { strategyA, strategyB };
+        for (int s = 0; s < 2; s++)
+        {
+            int colon = specs[s].lastIndexOf(':');
+            names[s] = colon < 0 ? specs[s] : specs[s].substring(0, colon);
+            millis[s] = colon < 0 ? 0 : Long.parseLong(specs[s].substring(colon + 1));
+            latency[s] = new LatencyHistogram(specs[s]);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 4) {
+                System.out.println("SelfPlayArena.main() expects the cities CSV file, two strategies, the number of games and optionally the threads and the seed.");
+                return;
+            }
+            GameLog.setLevel(GameLog.WARN);
+            CityIndex index = CityIndex.fromCsv(args[0]);
+            int games = Integer.parseInt(args[3]);
+            int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+            long seed = args.length > 5 ? Long.parseLong(args[5]) : 19;
+
+            SelfPlayArena arena = new SelfPlayArena(index, args[1], args[2], games, seed);
+            long start = System.nanoTime();
+            arena.run(threads);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(arena.report(seconds, threads));
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * run() plays all the games on the threads and returns when they are done.
+     */
+    public void run(int threads) throws InterruptedException
+    {
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Thread(this::play, "SelfPlayArena-" + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+    }
+
+    private void play()
+    {
+        Strategy[] strategies = new Strategy[2];
+        for (int s = 0; s < 2; s++)
+            strategies[s] = Strategy.create(names[s], index, millis[s], 1);
+        GameSession[] sessions = new GameSession[2];
+        for (int game = nextGame.getAndIncrement(); game < games; game = nextGame.getAndIncrement())
+        {
+            for (int s = 0; s < 2; s++)
+            {
+                sessions[s] = index.newSession();
+                sessions[s].setStrategy(strategies[s]);
+            }
+            int winner = playGame(sessions, game);
+            wins[winner].increment();
+            if (winner == (game & 1))
+                starterWins.increment();
+        }
+    }
+
+    /**
+     * playGame() plays one game and returns the seat of the winner, the
+     * strategy of seat game % 2 names the start city.
+     */
+    private int playGame(GameSession[] sessions, int game)
+    {
+        Random random = new Random((seed + game) * 0x9E3779B97F4A7C15L);
+        int turn = game & 1;
+        int startId = random.nextInt(index.names.size());
+        sessions[turn].removeCity(startId);
+        String city = index.names.name(startId);
+        int plies = 0;
+        while (true)
+        {
+            turn = 1 - turn;
+            long start = System.nanoTime();
+            String response = sessions[turn].nextMove(city);
+            latency[turn].record(System.nanoTime() - start);
+            plies++;
+            if (response.startsWith("Winner") || response.startsWith("Loser")) {
+                moves.add(plies);
+                return response.startsWith("Winner") ? turn : 1 - turn;
+            }
+            city = response;
+        }
+    }
+
+    /**
+     * Returns the 95% Wilson score interval of the win rate, low and high.
+     */
+    static double[] wilson(long wins, long games)
+    {
+        if (games == 0)
+            return new double[] { 0, 1 };
+        double p = wins / (double) games;
+        double z2 = Z_95 * Z_95;
+        double center = (p + z2 / (2 * games)) / (1 + z2 / games);
+        double half = Z_95 * Math.sqrt(p * (1 - p) / games + z2 / (4.0 * games * games)) / (1 + z2 / games);
+        return new double[] { center - half, center + half };
+    }
+
+    public String report(double seconds, int threads)
+    {
+        long a = wins[0].sum();
+        long played = a + wins[1].sum();
+        double[] interval = wilson(a, played);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("SelfPlayArena::%s vs %s games=%d threads=%d seconds=%.1f games/s=%.0f moves/s=%.0f%n",
+                latency[0].getName(), latency[1].getName(), played, threads, seconds, played / seconds, moves.sum() / seconds));
+        sb.append(String.format("SelfPlayArena::%s win rate=%.4f 95%% CI [%.4f, %.4f], starter win rate=%.4f%n",
+                latency[0].getName(), played == 0 ? 0 : a / (double) played, interval[0], interval[1],
+                played == 0 ? 0 : starterWins.sum() / (double) played));
+        for (int s = 0; s < 2; s++)
+            sb.append(String.format("SelfPlayArena::%s moves=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus%n",
+                    latency[s].getName(), latency[s].getCount(), latency[s].getMeanMicros(), latency[s].getP50Micros(),
+                    latency[s].getP99Micros(), latency[s].getMaxMicros()));
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,250 @@
+package com.css.geographygame;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>Server Load</h1>
+ * Load generator for the {@link GameServer}.  The server plays both seats
+ * of every game in two sessions and the generator only passes the response
+ * of one session to the other, so the time measured is the time of the
+ * server.  Every connection plays pipeline games at once on one keep-alive
+ * connection: each round writes the next request of all its games in one
+ * write, then reads the responses in order.
+ * <p>
+ * The first fifth of the run warms up the server and isn't counted, then
+ * the requests and games per second and the latency of the requests are
+ * reported.  The latency of a request is the time from the write of its
+ * round to its response, so it includes the requests pipelined before it.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.ServerLoad cities.csv host port connections pipeline seconds
+ * with host "embedded" to start a server in the same JVM on a free port.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class ServerLoad {
+
+    private static final int CREATE_FIRST = 0;
+    private static final int CREATE_SECOND = 1;
+    private static final int MOVE = 2;
+    private static final int DELETE = 3;
+
+    private class Game
+    {
+        int state = CREATE_FIRST;
+        String[] seats = new String[2];
+        int toMove;
+        String city;
+    }
+
+    private final String host;
+    private final int port;
+    private final ArrayList<String> cities;
+    private final LatencyHistogram latency = new LatencyHistogram("request");
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    public ServerLoad(String _host, int _port, ArrayList<String> _cities)
+    {
+        host = _host;
+        port = _port;
+        cities = _cities;
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 6) {
+                System.out.println("ServerLoad.main() expects the cities CSV file, host, port, connections, pipeline and seconds.");
+                return;
+            }
+            int connections = Integer.parseInt(args[3]);
+            int pipeline = Integer.parseInt(args[4]);
+            long millis = Long.parseLong(args[5]) * 1000;
+            GameLog.setLevel(GameLog.WARN);
+
+            ArrayList<String> cities = new ArrayList<>();
+            CityCsvLoader.load(args[0], (name, geonameid) -> cities.add(name));
+            GameServer server = null;
+            int port = Integer.parseInt(args[2]);
+            if (args[1].equals("embedded")) {
+                server = new GameServer(CityIndex.fromCsv(args[0]), null, Runtime.getRuntime().availableProcessors());
+                port = server.start(0);
+            }
+
+            ServerLoad load = new ServerLoad(args[1].equals("embedded") ? "localhost" : args[1], port, cities);
+            Thread[] threads = new Thread[connections];
+            for (int i = 0; i < connections; i++)
+            {
+                long seed = i;
+                threads[i] = new Thread(() -> load.play(pipeline, seed), "ServerLoad-" + i);
+                threads[i].start();
+            }
+            Thread.sleep(millis / 5);
+            load.measuring = true;
+            long start = System.nanoTime();
+            Thread.sleep(millis - millis / 5);
+            load.measuring = false;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            load.running = false;
+            for (Thread thread : threads)
+                thread.join();
+            if (server != null)
+                server.close();
+
+            System.out.println(String.format("ServerLoad.main()::connections=%d pipeline=%d requests/s=%.0f games/s=%.0f",
+                    connections, pipeline, load.requests.sum() / seconds, load.games.sum() / seconds));
+            System.out.println("ServerLoad.main()::" + load.latency);
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private void play(int pipeline, long seed)
+    {
+        Random random = new Random(seed);
+        Game[] slots = new Game[pipeline];
+        for (int g = 0; g < pipeline; g++)
+            slots[g] = new Game();
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            ByteArrayOutputStream round = new ByteArrayOutputStream();
+            while (running)
+            {
+                round.reset();
+                for (Game game : slots)
+                    writeRequest(round, game, random);
+                long start = System.nanoTime();
+                round.writeTo(out);
+                out.flush();
+                for (Game game : slots)
+                {
+                    String response = readResponse(in);
+                    if (measuring) {
+                        latency.record(System.nanoTime() - start);
+                        requests.increment();
+                    }
+                    next(game, response);
+                }
+            }
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeRequest(ByteArrayOutputStream round, Game game, Random random) throws IOException
+    {
+        String method = "POST";
+        String target;
+        String body = "";
+        switch (game.state) {
+            case CREATE_FIRST:
+                target = "/sessions";
+                game.city = cities.get(random.nextInt(cities.size()));
+                break;
+            case CREATE_SECOND:
+                //the second seat named the first city
+                target = "/sessions";
+                body = game.city;
+                break;
+            case MOVE:
+                target = "/sessions/" + game.seats[game.toMove] + "/move";
+                body = game.city;
+                break;
+            default:
+                method = "DELETE";
+                target = "/sessions/" + game.seats[game.toMove];
+        }
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = method + " " + target + " HTTP/1.1\r\nHost: " + host + "\r\nContent-Length: " + content.length + "\r\n\r\n";
+        round.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        round.write(content);
+    }
+
+    private void next(Game game, String response) throws IOException
+    {
+        switch (game.state) {
+            case CREATE_FIRST:
+                game.seats[0] = response;
+                game.state = CREATE_SECOND;
+                break;
+            case CREATE_SECOND:
+                game.seats[1] = response;
+                game.toMove = 0;
+                game.state = MOVE;
+                break;
+            case MOVE:
+                if (response.startsWith("Winner") || response.startsWith("Loser")) {
+                    //the server ended the session that answered, the other one is deleted
+                    if (measuring)
+                        games.increment();
+                    game.toMove = 1 - game.toMove;
+                    game.state = DELETE;
+                }
+                else {
+                    game.city = response;
+                    game.toMove = 1 - game.toMove;
+                }
+                break;
+            default:
+                game.state = CREATE_FIRST;
+        }
+    }
+
+    //returns the body of a 2xx response, other statuses stop the connection
+    private static String readResponse(InputStream in) throws IOException
+    {
+        String statusLine = readLine(in);
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(in)).isEmpty())
+        {
+            if (line.regionMatches(true, 0, "Content-Length:", 0, 15))
+                contentLength = Integer.parseInt(line.substring(15).trim());
+        }
+        byte[] content = new byte[contentLength];
+        for (int n = 0; n < contentLength; )
+        {
+            int read = in.read(content, n, contentLength - n);
+            if (read == -1)
+                throw new IOException("ServerLoad.readResponse()::Connection closed");
+            n += read;
+        }
+        String body = new String(content, StandardCharsets.UTF_8);
+        if (statusLine.length() < 12 || statusLine.charAt(9) != '2')
+            throw new IOException("ServerLoad.readResponse()::" + statusLine + " " + body);
+        return body;
+    }
+
+    private static String readLine(InputStream in) throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        int ch;
+        while ((ch = in.read()) != '\n')
+        {
+            if (ch == -1)
+                throw new IOException("ServerLoad.readLine()::Connection closed");
+            if (ch != '\r')
+                sb.append((char) ch);
+        }
+        return sb.toString();
+    }
+}
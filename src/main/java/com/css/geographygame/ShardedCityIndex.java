@@ -0,0 +1,625 @@
+package com.css.geographygame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <h1>Sharded City Index</h1>
+ * City index for gazetteers with millions of names that don't fit on the
+ * heap.  The names are sharded by (first, last) letter pair and the shards
+ * stay in a file that is memory mapped in segments the first time one of
+ * their names is needed, so only the counts by letter and by pair and the
+ * directory of the shards are kept on the heap.  Name ids are dense: the
+ * names of a pair are sorted and numbered after the names of the pairs
+ * before it.
+ * <p>
+ * compile() builds the file with a small heap too.  The cities are streamed
+ * from the CSV file into bucket files by letter pair, then one bucket at a
+ * time is sorted, its duplicates are counted and its shards are written.
+ * </p>
+ * <p>
+ * File layout (big endian): magic, version, 1 if the names were stripped of
+ * diacritics else 0, number of letters, the letters as code points, number
+ * of segments, offset and length of every segment, number of pairs, then
+ * per pair ordered by first and last letter index: first letter, last
+ * letter, number of names, number of cities, segment and position of the
+ * shard in the segment.  A shard of n names is n multiplicities, n + 1
+ * offsets of the names relative to the end of the offsets, then the names
+ * as UTF-8 sorted by their bytes.
+ * </p>
+ * <p>
+ * The index is read only and can be shared by threads.  A mapped segment is
+ * published with compareAndSet, so a thread never sees a segment before it
+ * is mapped, and when two threads map the same segment at the same time the
+ * first one wins and the other mapping is dropped.
+ * </p>
+ * <p>
+ * Usage: java com.css.geographygame.ShardedCityIndex cities.csv cities.shards [stripDiacritics]
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class ShardedCityIndex {
+
+    public static final int MAGIC = 0x47454F53; //GEOS
+    public static final int VERSION = 1;
+    //shards are mapped in segments of about this size, a larger shard gets a segment of its own
+    private static final long SEGMENT_SIZE = 64L << 20;
+    private static final int BUCKET_BITS = 7;
+
+    private final NameNormalizer normalizer;
+
+    //alphabet
+    final int[] letters;            //dense letter index -> code point
+    private final int[] letterIndex;    //letter symbol -> dense letter index, -1 if unused
+    final int nbrOfLetters;
+
+    //pairs with cities ordered by first then last letter, the pairs of the
+    //first letter f are firstOffset[f] to firstOffset[f + 1] - 1
+    final int[] firstOffset;
+    final int[] pairFirst;
+    final int[] pairLast;
+    final int[] pairCities;         //number of cities of the pair, duplicates included
+    final int[] pairBase;           //id of the first name of the pair, pairBase[nbrOfPairs] is the number of names
+    final int nbrOfPairs;
+    private final int[] pairSegment;
+    private final int[] pairPosition;
+    final int[] firstCount;         //number of cities by first letter
+    final int nbrOfCities;
+
+    private final Path path;
+    private final long[] segmentOffset;
+    private final long[] segmentLength;
+    private final AtomicReferenceArray<ByteBuffer> segments;
+
+    private ShardedCityIndex(NameNormalizer _normalizer, Path _path, int[] _letters, long[] _segmentOffset, long[] _segmentLength,
+                             int[] _pairFirst, int[] _pairLast, int[] _pairNames, int[] _pairCities,
+                             int[] _pairSegment, int[] _pairPosition)
+    {
+        normalizer = _normalizer;
+        path = _path;
+        letters = _letters;
+        nbrOfLetters = _letters.length;
+        int maxSymbol = -1;
+        for (int letter : letters)
+            maxSymbol = Math.max(maxSymbol, normalizer.intern(letter));
+        letterIndex = new int[maxSymbol + 1];
+        Arrays.fill(letterIndex, -1);
+        for (int l = 0; l < nbrOfLetters; l++)
+            letterIndex[normalizer.symbol(letters[l])] = l;
+
+        segmentOffset = _segmentOffset;
+        segmentLength = _segmentLength;
+        segments = new AtomicReferenceArray<>(_segmentOffset.length);
+        pairFirst = _pairFirst;
+        pairLast = _pairLast;
+        pairCities = _pairCities;
+        pairSegment = _pairSegment;
+        pairPosition = _pairPosition;
+        nbrOfPairs = _pairFirst.length;
+
+        firstOffset = new int[nbrOfLetters + 1];
+        pairBase = new int[nbrOfPairs + 1];
+        firstCount = new int[nbrOfLetters];
+        int cities = 0;
+        for (int pair = 0; pair < nbrOfPairs; pair++) {
+            firstOffset[pairFirst[pair] + 1]++;
+            pairBase[pair + 1] = pairBase[pair] + _pairNames[pair];
+            firstCount[pairFirst[pair]] += pairCities[pair];
+            cities += pairCities[pair];
+        }
+        for (int f = 0; f < nbrOfLetters; f++)
+            firstOffset[f + 1] += firstOffset[f];
+        nbrOfCities = cities;
+    }
+
+    /**
+     * open() reads the directory of a sharded index file, no shard is
+     * mapped until it is used.  Returns null if the file is not a sharded
+     * index of this version or was compiled with the other
+     * names.strip.diacritics setting than the normalizer.
+     * @param shardFile
+     * @param normalizer
+     * @return ShardedCityIndex
+     * @throws IOException
+     */
+    public static ShardedCityIndex open(String shardFile, NameNormalizer normalizer) throws IOException
+    {
+        Path path = Paths.get(shardFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                GameLog.warn("ShardedCityIndex.open()::" + shardFile + " is not a sharded index of version " + VERSION);
+                return null;
+            }
+            boolean stripDiacritics = in.readInt() == 1;
+            if (stripDiacritics != normalizer.isStripDiacritics()) {
+                GameLog.warn("ShardedCityIndex.open()::" + shardFile + " was compiled with names.strip.diacritics=" + stripDiacritics);
+                return null;
+            }
+            int[] letters = new int[in.readInt()];
+            for (int l = 0; l < letters.length; l++)
+                letters[l] = in.readInt();
+            int nbrOfSegments = in.readInt();
+            long[] segmentOffset = new long[nbrOfSegments];
+            long[] segmentLength = new long[nbrOfSegments];
+            for (int s = 0; s < nbrOfSegments; s++) {
+                segmentOffset[s] = in.readLong();
+                segmentLength[s] = in.readLong();
+            }
+            int nbrOfPairs = in.readInt();
+            int[] pairFirst = new int[nbrOfPairs];
+            int[] pairLast = new int[nbrOfPairs];
+            int[] pairNames = new int[nbrOfPairs];
+            int[] pairCities = new int[nbrOfPairs];
+            int[] pairSegment = new int[nbrOfPairs];
+            int[] pairPosition = new int[nbrOfPairs];
+            for (int pair = 0; pair < nbrOfPairs; pair++) {
+                pairFirst[pair] = in.readInt();
+                pairLast[pair] = in.readInt();
+                pairNames[pair] = in.readInt();
+                pairCities[pair] = in.readInt();
+                pairSegment[pair] = in.readInt();
+                pairPosition[pair] = in.readInt();
+            }
+            return new ShardedCityIndex(normalizer, path, letters, segmentOffset, segmentLength, pairFirst, pairLast, pairNames,
+                    pairCities, pairSegment, pairPosition);
+        }
+    }
+
+    /**
+     * load() opens the sharded index file and compiles it from the cities
+     * file first if it doesn't exist or can't be used.
+     * @param shardFile
+     * @param csvFile
+     * @param normalizer
+     * @return ShardedCityIndex
+     * @throws IOException
+     */
+    public static ShardedCityIndex load(String shardFile, String csvFile, NameNormalizer normalizer) throws IOException
+    {
+        ShardedCityIndex index = new File(shardFile).exists() ? open(shardFile, normalizer) : null;
+        if (index == null) {
+            long start = System.currentTimeMillis();
+            compile(csvFile, shardFile, normalizer);
+            index = open(shardFile, normalizer);
+            GameLog.info("ShardedCityIndex.load()::Compiled " + csvFile + " into " + shardFile + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+        return index;
+    }
+
+    public ShardedSession newSession()
+    {
+        return new ShardedSession(this);
+    }
+
+    public NameNormalizer getNormalizer()
+    {
+        return normalizer;
+    }
+
+    public int getNbrOfCities()
+    {
+        return nbrOfCities;
+    }
+
+    public int getNbrOfNames()
+    {
+        return pairBase[nbrOfPairs];
+    }
+
+    public int getNbrOfPairs()
+    {
+        return nbrOfPairs;
+    }
+
+    public int getNbrOfLetters()
+    {
+        return nbrOfLetters;
+    }
+
+    /**
+     * Returns the number of segments mapped so far.
+     */
+    public int getMappedSegments()
+    {
+        int mapped = 0;
+        for (int s = 0; s < segments.length(); s++)
+            if (segments.get(s) != null)
+                mapped++;
+        return mapped;
+    }
+
+    /**
+     * Returns the dense index of the letter or -1 if no city starts or ends with it.
+     * @param letter code point
+     */
+    public int letterIndex(int letter)
+    {
+        int symbol = normalizer.symbol(letter);
+        return symbol >= 0 && symbol < letterIndex.length ? letterIndex[symbol] : -1;
+    }
+
+    /**
+     * Returns the pair of the dense letter indexes or -1 if no city goes
+     * from the first to the last letter.
+     */
+    public int findPair(int first, int last)
+    {
+        if (first < 0 || last < 0)
+            return -1;
+        int lo = firstOffset[first];
+        int hi = firstOffset[first + 1] - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (pairLast[mid] < last)
+                lo = mid + 1;
+            else if (pairLast[mid] > last)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the pair of the name id.
+     */
+    public int pairOf(int id)
+    {
+        int lo = 0;
+        int hi = nbrOfPairs - 1;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (pairBase[mid] <= id)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * find() returns the id of a normalized name or -1 if there is no city
+     * with that name.  Only the shard of the letter pair of the name is
+     * searched.
+     * @param name
+     * @return int
+     */
+    public int find(String name)
+    {
+        if (name == null || name.isEmpty())
+            return -1;
+        int pair = findPair(letterIndex(NameNormalizer.firstLetter(name)), letterIndex(NameNormalizer.lastLetter(name)));
+        if (pair == -1)
+            return -1;
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer segment = segment(pairSegment[pair]);
+        int n = pairBase[pair + 1] - pairBase[pair];
+        int offsets = pairPosition[pair] + 4 * n;
+        int names = offsets + 4 * (n + 1);
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(segment, names + segment.getInt(offsets + 4 * mid), names + segment.getInt(offsets + 4 * mid + 4), key);
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else
+                return pairBase[pair] + mid;
+        }
+        return -1;
+    }
+
+    public String name(int id)
+    {
+        int pair = pairOf(id);
+        ByteBuffer segment = segment(pairSegment[pair]);
+        int n = pairBase[pair + 1] - pairBase[pair];
+        int offsets = pairPosition[pair] + 4 * n;
+        int names = offsets + 4 * (n + 1);
+        int i = id - pairBase[pair];
+        int start = names + segment.getInt(offsets + 4 * i);
+        byte[] bytes = new byte[names + segment.getInt(offsets + 4 * i + 4) - start];
+        for (int b = 0; b < bytes.length; b++)
+            bytes[b] = segment.get(start + b);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of cities with the name, i.e. duplicates.
+     */
+    public int multiplicity(int id)
+    {
+        int pair = pairOf(id);
+        return segment(pairSegment[pair]).getInt(pairPosition[pair] + 4 * (id - pairBase[pair]));
+    }
+
+    private ByteBuffer segment(int s)
+    {
+        ByteBuffer segment = segments.get(s);
+        if (segment == null) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentOffset[s], segmentLength[s]);
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            if (!segments.compareAndSet(s, null, segment))
+                segment = segments.get(s);
+        }
+        return segment;
+    }
+
+    private static int compare(ByteBuffer segment, int start, int end, byte[] key)
+    {
+        int length = Math.min(end - start, key.length);
+        for (int i = 0; i < length; i++)
+        {
+            int c = (segment.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return (end - start) - key.length;
+    }
+
+    private static int compare(byte[] a, byte[] b)
+    {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++)
+        {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return a.length - b.length;
+    }
+
+    private static final class Entry
+    {
+        final long key;             //first letter << 32 | last letter, code points
+        final byte[] name;
+        Entry(long _key, byte[] _name)
+        {
+            key = _key;
+            name = _name;
+        }
+    }
+
+    private static final class Shard
+    {
+        int first;
+        int last;
+        int names;
+        int cities;
+        int segment;
+        int position;
+    }
+
+    /**
+     * compile() writes the sharded index of the cities file.  The heap only
+     * has to hold one bucket, about 1/128 of the names, at a time.  The file
+     * is written under a temporary name and renamed, so players that compile
+     * the same file at the same time never read a partial one.
+     * @param csvFile
+     * @param shardFile
+     * @param normalizer normalizer of the names
+     * @throws IOException
+     */
+    public static void compile(String csvFile, String shardFile, NameNormalizer normalizer) throws IOException
+    {
+        Path tmpDir = Files.createTempDirectory("geography-shards");
+        int nbrOfBuckets = 1 << BUCKET_BITS;
+        File[] bucketFiles = new File[nbrOfBuckets];
+        File dataFile = new File(tmpDir.toFile(), "shards");
+        Path tmpFile = Paths.get(shardFile + "." + System.nanoTime() + ".tmp");
+        try {
+            //stream the cities into the buckets
+            DataOutputStream[] buckets = new DataOutputStream[nbrOfBuckets];
+            try {
+                for (int b = 0; b < nbrOfBuckets; b++) {
+                    bucketFiles[b] = new File(tmpDir.toFile(), "bucket" + b);
+                    buckets[b] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bucketFiles[b]), 1 << 15));
+                }
+                CityCsvLoader.load(csvFile, normalizer, (name, geonameid) -> {
+                    long key = (long) NameNormalizer.firstLetter(name) << 32 | NameNormalizer.lastLetter(name);
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    DataOutputStream out = buckets[(int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - BUCKET_BITS))];
+                    try {
+                        out.writeLong(key);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    } catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            } finally
+            {
+                for (DataOutputStream out : buckets)
+                    if (out != null)
+                        out.close();
+            }
+
+            //sort one bucket at a time and write its shards
+            ArrayList<Shard> shards = new ArrayList<>();
+            ArrayList<Long> segmentLengths = new ArrayList<>();
+            long segmentLength = 0;
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), 1 << 16))) {
+                for (int b = 0; b < nbrOfBuckets; b++)
+                {
+                    ArrayList<Entry> entries = new ArrayList<>();
+                    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bucketFiles[b]), 1 << 16))) {
+                        while (true) {
+                            long key;
+                            try {
+                                key = in.readLong();
+                            } catch (EOFException e)
+                            {
+                                break;
+                            }
+                            byte[] name = new byte[in.readInt()];
+                            in.readFully(name);
+                            entries.add(new Entry(key, name));
+                        }
+                    }
+                    bucketFiles[b].delete();
+                    entries.sort((x, y) -> x.key != y.key ? Long.compare(x.key, y.key) : compare(x.name, y.name));
+
+                    for (int start = 0; start < entries.size(); )
+                    {
+                        int end = start;
+                        while (end < entries.size() && entries.get(end).key == entries.get(start).key)
+                            end++;
+                        //count the duplicates of the pair
+                        ArrayList<byte[]> names = new ArrayList<>();
+                        int[] multiplicity = new int[end - start];
+                        int nameBytes = 0;
+                        for (int e = start; e < end; e++) {
+                            byte[] name = entries.get(e).name;
+                            if (names.isEmpty() || compare(names.get(names.size() - 1), name) != 0) {
+                                names.add(name);
+                                nameBytes += name.length;
+                            }
+                            multiplicity[names.size() - 1]++;
+                        }
+                        int n = names.size();
+                        long shardLength = 4L * (2 * n + 1) + nameBytes;
+                        if (segmentLength > 0 && segmentLength + shardLength > SEGMENT_SIZE) {
+                            segmentLengths.add(segmentLength);
+                            segmentLength = 0;
+                        }
+                        Shard shard = new Shard();
+                        shard.first = (int) (entries.get(start).key >>> 32);
+                        shard.last = (int) entries.get(start).key;
+                        shard.names = n;
+                        shard.cities = end - start;
+                        shard.segment = segmentLengths.size();
+                        shard.position = (int) segmentLength;
+                        shards.add(shard);
+                        for (int i = 0; i < n; i++)
+                            data.writeInt(multiplicity[i]);
+                        int offset = 0;
+                        for (byte[] name : names) {
+                            data.writeInt(offset);
+                            offset += name.length;
+                        }
+                        data.writeInt(offset);
+                        for (byte[] name : names)
+                            data.write(name);
+                        segmentLength += shardLength;
+                        start = end;
+                    }
+                }
+            }
+            if (segmentLength > 0)
+                segmentLengths.add(segmentLength);
+
+            //letters in code point order, pairs by first and last letter index
+            TreeSet<Integer> letterSet = new TreeSet<>();
+            for (Shard shard : shards) {
+                letterSet.add(shard.first);
+                letterSet.add(shard.last);
+            }
+            int[] letters = new int[letterSet.size()];
+            int nbrOfLetters = 0;
+            for (int letter : letterSet)
+                letters[nbrOfLetters++] = letter;
+            shards.sort((x, y) -> x.first != y.first ? Integer.compare(x.first, y.first) : Integer.compare(x.last, y.last));
+
+            int headerLength = 4 * 5 + 4 * letters.length + 16 * segmentLengths.size() + 4 + 24 * shards.size();
+            try (FileChannel out = FileChannel.open(tmpFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream header = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(normalizer.isStripDiacritics() ? 1 : 0);
+                header.writeInt(letters.length);
+                for (int letter : letters)
+                    header.writeInt(letter);
+                header.writeInt(segmentLengths.size());
+                long offset = headerLength;
+                for (long length : segmentLengths) {
+                    header.writeLong(offset);
+                    header.writeLong(length);
+                    offset += length;
+                }
+                header.writeInt(shards.size());
+                for (Shard shard : shards) {
+                    header.writeInt(Arrays.binarySearch(letters, shard.first));
+                    header.writeInt(Arrays.binarySearch(letters, shard.last));
+                    header.writeInt(shard.names);
+                    header.writeInt(shard.cities);
+                    header.writeInt(shard.segment);
+                    header.writeInt(shard.position);
+                }
+                header.flush();
+                try (FileChannel in = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long position = 0; position < size; )
+                        position += in.transferTo(position, size - position, out);
+                }
+            }
+            Files.move(tmpFile, Paths.get(shardFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally
+        {
+            Files.deleteIfExists(tmpFile);
+            for (File bucketFile : bucketFiles)
+                if (bucketFile != null)
+                    bucketFile.delete();
+            dataFile.delete();
+            tmpDir.toFile().delete();
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        try {
+            if (args == null || args.length < 2) {
+                System.out.println("ShardedCityIndex.main() expects the cities CSV file and the sharded index file to write.");
+                return;
+            }
+            NameNormalizer normalizer = new NameNormalizer(args.length > 2 && Boolean.parseBoolean(args[2]));
+            long start = System.currentTimeMillis();
+            compile(args[0], args[1], normalizer);
+            ShardedCityIndex index = open(args[1], normalizer);
+            System.out.println("ShardedCityIndex.main()::Compiled " + index.getNbrOfCities() + " cities, " + index.getNbrOfNames()
+                    + " names in " + index.getNbrOfPairs() + " shards and " + index.segments.length() + " segments into "
+                    + args[1] + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.css.geographygame;
+
+/**
+ * <h1>Sharded Session</h1>
+ * Mutable state of one game played on a {@link ShardedCityIndex}.  The
+ * session only copies the counts by pair and by first letter and counts the
+ * names played in a {@link NameCountTable}, so its heap grows with the
+ * moves played and not with the size of the gazetteer.  A single session is
+ * not thread safe.
+ * <p>
+ * nextMove() plays the greedy choice of {@link GameSession}: the response
+ * ends with the letter that leaves the opponent the fewest cities, as long
+ * as the opponent still has one.  Every pair keeps a cursor on the first
+ * name of its shard that may still have cities left, so picking a city of a
+ * pair walks over every played name only once per game.
+ * </p>
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class ShardedSession {
+
+    private final ShardedCityIndex index;
+    private final int[] pairCities;       //number of cities left for the pair
+    private final int[] cursor;           //first name of the pair that may have cities left, relative to pairBase
+    final int[] firstCount;               //number of cities left by first letter
+    private final NameCountTable used = new NameCountTable(256);
+    private int nbrOfCities;
+
+    public ShardedSession(ShardedCityIndex _index)
+    {
+        index = _index;
+        pairCities = index.pairCities.clone();
+        cursor = new int[index.nbrOfPairs];
+        firstCount = index.firstCount.clone();
+        nbrOfCities = index.nbrOfCities;
+    }
+
+    /**
+     * nextMove() validates and removes the opponents city, then answers with
+     * a city starting with its last letter.
+     * @param opponentsCity
+     * @return String city name or a Winner/Loser message
+     */
+    public String nextMove(String opponentsCity)
+    {
+        if (opponentsCity == null || opponentsCity.isEmpty())
+            return GameSession.WINNER_NO_CITY;
+        opponentsCity = index.getNormalizer().normalize(opponentsCity);
+
+        int opponentsId = lookupCity(opponentsCity);
+        if (opponentsId == -1)
+            return GameSession.WINNER_INVALID;
+        removeCity(opponentsId);
+
+        int first = index.pairLast[index.pairOf(opponentsId)];
+        while (true)
+        {
+            //the pair whose last letter leaves the fewest responses, lowest letter on ties
+            int best = -1;
+            for (int pair = index.firstOffset[first]; pair < index.firstOffset[first + 1]; pair++)
+            {
+                if (pairCities[pair] == 0 || firstCount[index.pairLast[pair]] == 0)
+                    continue;
+                if (best == -1 || firstCount[index.pairLast[pair]] < firstCount[index.pairLast[best]])
+                    best = pair;
+            }
+            if (best == -1)
+                return GameSession.LOSER_NO_RESPONSE;
+
+            //need to check if a valid response exists to my response, which is
+            //any other city that starts with the last letter of my city
+            int last = index.pairLast[best];
+            int responses = firstCount[last] - (first == last ? 1 : 0);
+            int id = cityForPair(best);
+            removeCity(id);
+            if (responses > 0)
+                return index.name(id);
+            GameMetrics.REJECTED_CANDIDATES.increment();
+        }
+    }
+
+    /**
+     * lookupCity() returns the id of a city name that is still available
+     * or -1 if it doesn't exist or every city with that name was used.
+     * @param city normalized city name
+     * @return int
+     */
+    public int lookupCity(String city)
+    {
+        int id = index.find(city);
+        if (id == -1 || used.get(id) >= index.multiplicity(id))
+            return -1;
+        return id;
+    }
+
+    public boolean removeCity(String city)
+    {
+        int id = lookupCity(city);
+        if (id == -1)
+            return false;
+        removeCity(id);
+        return true;
+    }
+
+    void removeCity(int id)
+    {
+        int pair = index.pairOf(id);
+        used.incrementBelow(id, index.multiplicity(id));
+        pairCities[pair]--;
+        firstCount[index.pairFirst[pair]]--;
+        nbrOfCities--;
+    }
+
+    private int cityForPair(int pair)
+    {
+        int base = index.pairBase[pair];
+        int c = cursor[pair];
+        while (used.get(base + c) >= index.multiplicity(base + c))
+            c++;
+        cursor[pair] = c;
+        return base + c;
+    }
+
+    public ShardedCityIndex getIndex()
+    {
+        return index;
+    }
+
+    public int getNbrOfCities()
+    {
+        return nbrOfCities;
+    }
+}
@@ -0,0 +1,138 @@
+package com.css.geographygame;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+
+/**
+ * <h1>Socket Transport</h1>
+ * Sends the moves as framed messages (index, then the city as modified
+ * UTF-8) over a loopback TCP connection with Nagle disabled.  The controller
+ * listens and waits for both players, a player connects and introduces
+ * itself with its file prefix.  A message written with the CTRLPlayer2
+ * prefix goes to the connection of Player2 and a message read with the
+ * Player1 prefix comes from the connection of Player1.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class SocketTransport implements GameTransport {
+
+    private static final String CONTROLLER_PREFIX = "CTRL";
+
+    private class Connection
+    {
+        Socket socket;
+        DataInputStream in;
+        DataOutputStream out;
+        public Connection(Socket _socket) throws IOException
+        {
+            socket = _socket;
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeoutMillis);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+
+    private final HashMap<String, Connection> connections = new HashMap<>();
+    private final int readTimeoutMillis;
+    private ServerSocket serverSocket;
+
+    private SocketTransport(int _readTimeout)
+    {
+        readTimeoutMillis = _readTimeout * 100;
+    }
+
+    /**
+     * listen() is used by the controller and returns once every player has
+     * connected.
+     * @param port
+     * @param nbrOfPlayers
+     * @param readTimeout number of 100 ms waits, like the file transport
+     */
+    public static SocketTransport listen(int port, int nbrOfPlayers, int readTimeout) throws IOException
+    {
+        SocketTransport transport = new SocketTransport(readTimeout);
+        transport.serverSocket = new ServerSocket();
+        transport.serverSocket.bind(new InetSocketAddress(port));
+        while (transport.connections.size() < nbrOfPlayers)
+        {
+            Connection connection = transport.new Connection(transport.serverSocket.accept());
+            String playerPrefix = connection.in.readUTF();
+            GameLog.info("SocketTransport.listen()::" + playerPrefix + " connected");
+            transport.connections.put(playerPrefix, connection);
+        }
+        return transport;
+    }
+
+    /**
+     * connect() is used by a player and retries until the controller is
+     * listening or the read timeout has passed.
+     * @param host
+     * @param port
+     * @param playerPrefix file prefix of the player, Player1 or Player2
+     * @param readTimeout number of 100 ms waits, like the file transport
+     */
+    public static SocketTransport connect(String host, int port, String playerPrefix, int readTimeout) throws Exception
+    {
+        SocketTransport transport = new SocketTransport(readTimeout);
+        long deadline = System.currentTimeMillis() + transport.readTimeoutMillis;
+        while (true)
+        {
+            try {
+                Connection connection = transport.new Connection(new Socket(host, port));
+                connection.out.writeUTF(playerPrefix);
+                connection.out.flush();
+                transport.connections.put(playerPrefix, connection);
+                return transport;
+            } catch (IOException e)
+            {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private Connection connection(String filePrefix) throws IOException
+    {
+        //a player has a single connection to the controller
+        if (connections.size() == 1)
+            return connections.values().iterator().next();
+        String playerPrefix = filePrefix.startsWith(CONTROLLER_PREFIX) ? filePrefix.substring(CONTROLLER_PREFIX.length()) : filePrefix;
+        Connection connection = connections.get(playerPrefix);
+        if (connection == null)
+            throw new IOException("SocketTransport::No connection for " + filePrefix);
+        return connection;
+    }
+
+    public void writeNext(String filePrefix, int index, String data) throws Exception
+    {
+        Connection connection = connection(filePrefix);
+        connection.out.writeInt(index);
+        connection.out.writeUTF(data);
+        connection.out.flush();
+    }
+
+    public String readNext(String filePrefix, int index) throws Exception
+    {
+        Connection connection = connection(filePrefix);
+        int msgIndex = connection.in.readInt();
+        String data = connection.in.readUTF();
+        if (msgIndex != index)
+            throw new IOException("SocketTransport.readNext()::Expected move " + index + " from " + filePrefix + " but received " + msgIndex);
+        return data;
+    }
+
+    public void close() throws IOException
+    {
+        for (Connection connection : connections.values())
+            connection.socket.close();
+        if (serverSocket != null)
+            serverSocket.close();
+    }
+}
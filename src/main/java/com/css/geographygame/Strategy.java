@@ -0,0 +1,69 @@
+package com.css.geographygame;
+
+/**
+ * <h1>Strategy</h1>
+ * Picks the response of the letter graph engine.  {@link GameSession#nextMove}
+ * validates and removes the opponent's city, plays the opening book and the
+ * endgame solver when they apply, then asks its strategy for the last letter
+ * of the response and plays a city of that pair.  A strategy that returns -1,
+ * or no strategy at all, leaves the move to the greedy choice of the session.
+ * <ul>
+ * <li>greedy - no strategy, the letter with the fewest cities left</li>
+ * <li>random - any legal move, see {@link RandomStrategy}</li>
+ * <li>alphabeta - {@link MoveSearch}, or {@link ParallelMoveSearch} with more than one thread</li>
+ * <li>mcts - {@link MctsSearch}</li>
+ * </ul>
+ * Any other name is loaded as a class with a public constructor taking the
+ * index, the time budget in millis and the number of threads.  A strategy
+ * plays for one session at a time and doesn't have to be thread safe.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public interface Strategy {
+
+    String GREEDY = "greedy";
+    String RANDOM = "random";
+    String ALPHABETA = "alphabeta";
+    String MCTS = "mcts";
+
+    /**
+     * bestMove() picks the move of the player that has to start with the
+     * letter first.  The counts belong to the session and must not be changed.
+     * @param pairCount city counts by letter pair of the session
+     * @param firstCount city counts by first letter of the session
+     * @param first dense index of the letter to start with
+     * @return int dense index of the last letter to play or -1 for the greedy choice
+     */
+    int bestMove(int[] pairCount, int[] firstCount, int first);
+
+    /**
+     * create() returns the strategy of the name, null for greedy.
+     * @param name one of the names above or a class name
+     * @param index index the strategy plays on
+     * @param millis time budget per move of the searches
+     * @param threads threads per move of the searches
+     * @return Strategy
+     */
+    static Strategy create(String name, CityIndex index, long millis, int threads)
+    {
+        switch (name) {
+            case GREEDY:
+                return null;
+            case RANDOM:
+                return new RandomStrategy(index);
+            case ALPHABETA:
+                return threads > 1 ? new ParallelMoveSearch(index, millis, threads) : new MoveSearch(index, millis);
+            case MCTS:
+                return new MctsSearch(index, millis, threads);
+            default:
+                try {
+                    return (Strategy) Class.forName(name).getConstructor(CityIndex.class, long.class, int.class)
+                            .newInstance(index, millis, threads);
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException("Strategy.create()::Unknown strategy " + name, e);
+                }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.css.geographygame;
+
+/**
+ * <h1>Transposition Table</h1>
+ * Table of searched positions shared by all the threads of a
+ * {@link ParallelMoveSearch} without any locks.  Every entry is a 64 bit
+ * position key and a 64 bit data word, and the slot stores the key xor'ed
+ * with the data.  A thread that reads a slot while another thread writes it
+ * sees a key that doesn't match and treats the slot as empty, so a torn
+ * entry is never used.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class TranspositionTable {
+
+    public static final int DEFAULT_BITS = 20;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+
+    public TranspositionTable(int _bits)
+    {
+        keys = new long[1 << _bits];
+        data = new long[1 << _bits];
+        mask = (1 << _bits) - 1;
+    }
+
+    /**
+     * probe() returns the data stored for the key or 0 if the key isn't in
+     * the table.  Callers never store a data word of 0.
+     * @param key
+     * @return long
+     */
+    public long probe(long key)
+    {
+        int slot = (int) key & mask;
+        long value = data[slot];
+        if ((keys[slot] ^ value) != key)
+            return 0;
+        return value;
+    }
+
+    public void store(long key, long value)
+    {
+        int slot = (int) key & mask;
+        data[slot] = value;
+        keys[slot] = key ^ value;
+    }
+}
@@ -0,0 +1,76 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Watch Service Transport</h1>
+ * Uses the same data and trigger files as the {@link FileTransport}, so it
+ * can play against a peer that still polls, but the reader blocks on a NIO
+ * WatchService for the play directory and wakes up as soon as the trigger
+ * file is created instead of sleeping 100 ms between checks.  Both files are
+ * written with a single Files.write() each.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class WatchServiceTransport extends FileTransport {
+
+    private static final byte[] TAG = "TAG! You're it.".getBytes(StandardCharsets.UTF_8);
+
+    private final WatchService watchService;
+
+    public WatchServiceTransport(String _playDirectory, boolean controller, int _readTimeout) throws IOException
+    {
+        super(_playDirectory, controller, _readTimeout);
+        watchService = FileSystems.getDefault().newWatchService();
+        Paths.get(playDirectory).register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    @Override
+    public void writeNext(String filePrefix, int index, String data) throws Exception
+    {
+        Files.write(Paths.get(dataFile(filePrefix, index)), data.getBytes(StandardCharsets.UTF_8));
+        Files.write(Paths.get(triggerFile(filePrefix, writeTrigger, index)), TAG);
+    }
+
+    @Override
+    public String readNext(String filePrefix, int index) throws Exception
+    {
+        File trigFile = new File(triggerFile(filePrefix, readTrigger, index));
+        //same overall timeout as the polling transport
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout * 100L);
+        while (!trigFile.exists())
+        {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0)
+                break;
+            WatchKey key = watchService.poll(wait, TimeUnit.NANOSECONDS);
+            if (key == null)
+                break;
+            //the events only wake us up, the trigger file is checked again above
+            key.pollEvents();
+            key.reset();
+        }
+        return readData(filePrefix, index);
+    }
+
+    @Override
+    protected String readData(String filePrefix, int index) throws Exception
+    {
+        byte[] bytes = Files.readAllBytes(Paths.get(dataFile(filePrefix, index)));
+        String response = new String(bytes, StandardCharsets.UTF_8);
+        int endOfLine = response.indexOf('\n');
+        return endOfLine == -1 ? response : response.substring(0, endOfLine);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        watchService.close();
+    }
+}
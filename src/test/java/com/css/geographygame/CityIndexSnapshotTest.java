@@ -0,0 +1,176 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>City Index Snapshot Test</h1>
+ * Compiles a small cities file into a {@link CityIndexSnapshot} and loads it
+ * back for either engine, which must then play the same moves as one loaded
+ * from the CSV file.  verify() catches a flipped byte, and a truncated file
+ * or one compiled with the other diacritics setting is not loaded.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class CityIndexSnapshotTest {
+
+    private static final String[] MOVES = { "Paris", "York", "Nairobi", "Oslo", "Amsterdam", "Kabul", "Lima", "Essen" };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String csv;
+    private String snapshot;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File file = folder.newFile("cities.csv");
+        Files.write(file.toPath(), Arrays.asList("name,country,subcountry,geonameid",
+                "Paris,France,Ile-de-France,1", "Sydney,Australia,New South Wales,2", "Seoul,South Korea,Seoul,3",
+                "York,United Kingdom,England,4", "Oslo,Norway,Oslo,5", "London,United Kingdom,England,6",
+                "Nairobi,Kenya,Nairobi,7", "Istanbul,Turkey,Istanbul,8", "Lima,Peru,Lima,9", "Athens,Greece,Attica,10",
+                "Kyoto,Japan,Kyoto,11", "Ottawa,Canada,Ontario,12", "Accra,Ghana,Greater Accra,13",
+                "Amsterdam,Netherlands,North Holland,14", "Madrid,Spain,Madrid,15", "Dakar,Senegal,Dakar,16",
+                "Essen,Germany,North Rhine-Westphalia,17", "Nantes,France,Pays de la Loire,18",
+                "Zürich,Switzerland,Zurich,19", "Helsinki,Finland,Uusimaa,20", "Kabul,Afghanistan,Kabul,21",
+                "Lagos,Nigeria,Lagos,22"), StandardCharsets.UTF_8);
+        csv = file.getPath();
+        snapshot = new File(folder.getRoot(), "cities.idx").getPath();
+        write(csv, snapshot, new NameNormalizer());
+    }
+
+    //compiles the snapshot like CityIndexSnapshot.main()
+    private static void write(String csvFile, String indexFile, NameNormalizer normalizer) throws IOException
+    {
+        GeographyGame gg = new GeographyGame();
+        gg.setNormalizer(normalizer);
+        CityIndex.Builder builder = new CityIndex.Builder(normalizer);
+        CityCsvLoader.load(csvFile, normalizer, (name, geonameid) -> {
+            builder.addCity(name);
+            gg.addCity(new GeographyGame.CityNode(name, geonameid));
+        });
+        gg.sortLists();
+        CityIndexSnapshot.write(indexFile, builder.build(), gg);
+    }
+
+    private GeographyGame fromCsv(String engine)
+    {
+        GeographyGame gg = new GeographyGame();
+        gg.engine = engine;
+        gg.fileName = csv;
+        gg.loadData();
+        return gg;
+    }
+
+    //loads the snapshot and sets up the engine like loadData()
+    private GeographyGame fromSnapshot(String engine)
+    {
+        GeographyGame gg = new GeographyGame();
+        gg.engine = engine;
+        assertTrue(CityIndexSnapshot.load(snapshot, gg));
+        if (GeographyGame.ENGINE_GRAPH.equals(engine))
+            gg.loadData();
+        else
+            gg.buildLetterBitsets();
+        return gg;
+    }
+
+    private static void assertSameMoves(GeographyGame expected, GeographyGame actual)
+    {
+        for (String city : MOVES)
+            assertEquals(city, expected.nextMove(city), actual.nextMove(city));
+    }
+
+    private void corrupt(long offset) throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0x40);
+        }
+    }
+
+    @Test
+    public void graphRoundTrip()
+    {
+        GeographyGame csvGame = fromCsv(GeographyGame.ENGINE_GRAPH);
+        GeographyGame snapshotGame = fromSnapshot(GeographyGame.ENGINE_GRAPH);
+        CityIndex expected = csvGame.cityIndex;
+        CityIndex actual = snapshotGame.cityIndex;
+        assertEquals(expected.getNbrOfCities(), actual.getNbrOfCities());
+        assertEquals(expected.getNameChecksum(), actual.getNameChecksum());
+        for (int id = 0; id < expected.getNames().size(); id++)
+            assertEquals(expected.getNames().name(id), actual.getNames().name(id));
+        assertArrayEquals(expected.pairCount, actual.pairCount);
+        assertSameMoves(csvGame, snapshotGame);
+    }
+
+    @Test
+    public void trieRoundTrip()
+    {
+        GeographyGame csvGame = fromCsv(GeographyGame.ENGINE_TRIE);
+        GeographyGame snapshotGame = fromSnapshot(GeographyGame.ENGINE_TRIE);
+        assertEquals(csvGame.lookupCity("zürich") != -1, snapshotGame.lookupCity("zürich") != -1);
+        assertSameMoves(csvGame, snapshotGame);
+    }
+
+    @Test
+    public void verifyRejectsAFlippedByte() throws IOException
+    {
+        assertTrue(CityIndexSnapshot.verify(snapshot));
+        corrupt(new File(snapshot).length() / 2);
+        assertFalse(CityIndexSnapshot.verify(snapshot));
+    }
+
+    @Test
+    public void truncatedSnapshotIsNotLoaded() throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertFalse(CityIndexSnapshot.verify(snapshot));
+        GeographyGame gg = new GeographyGame();
+        gg.engine = GeographyGame.ENGINE_GRAPH;
+        assertFalse(CityIndexSnapshot.load(snapshot, gg));
+    }
+
+    @Test
+    public void corruptedHeaderIsNotLoaded() throws IOException
+    {
+        corrupt(0);
+        assertFalse(CityIndexSnapshot.verify(snapshot));
+        GeographyGame gg = new GeographyGame();
+        gg.engine = GeographyGame.ENGINE_TRIE;
+        assertFalse(CityIndexSnapshot.load(snapshot, gg));
+    }
+
+    @Test
+    public void otherDiacriticsSettingIsNotLoaded() throws IOException
+    {
+        write(csv, snapshot, new NameNormalizer(true));
+        assertTrue(CityIndexSnapshot.verify(snapshot));
+        GeographyGame gg = new GeographyGame();
+        gg.engine = GeographyGame.ENGINE_GRAPH;
+        assertFalse(CityIndexSnapshot.load(snapshot, gg));
+        gg.setNormalizer(new NameNormalizer(true));
+        assertTrue(CityIndexSnapshot.load(snapshot, gg));
+    }
+}
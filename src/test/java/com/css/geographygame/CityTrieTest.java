@@ -0,0 +1,140 @@
+package com.css.geographygame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>City Trie Test</h1>
+ * Duplicate cities on one node of the {@link CityTrie}: appending, removing
+ * a given city or the first one, and reading the chains back from a
+ * snapshot.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class CityTrieTest {
+
+    private CityTrie trie;
+    private int root;
+    private int sanJose;
+    private int paris;
+
+    @Before
+    public void setUp()
+    {
+        trie = new CityTrie();
+        root = trie.newNode('e');
+        //three cities named "se" and one named "p", a path gets its city before
+        //the next path is added like when the cities are loaded
+        sanJose = trie.addChild(trie.addChild(root, 's'), 'e');
+        trie.addCity(sanJose, 0);
+        trie.addCity(sanJose, 1);
+        trie.addCity(sanJose, 2);
+        paris = trie.addChild(root, 'p');
+        trie.addCity(paris, 3);
+    }
+
+    private int[] cities(CityTrie t, int node)
+    {
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (int cityId = t.firstCity(node); cityId != CityTrie.NONE; cityId = t.nextCity(cityId))
+            ids.add(cityId);
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void addKeepsLoadOrder()
+    {
+        assertArrayEquals(new int[] { 0, 1, 2 }, cities(trie, sanJose));
+        assertEquals(4, trie.liveCities(root));
+        assertTrue(trie.hasCity(2));
+    }
+
+    @Test
+    public void removeByIdKeepsTheOthers()
+    {
+        assertTrue(trie.removeCity(1));
+        assertArrayEquals(new int[] { 0, 2 }, cities(trie, sanJose));
+        assertTrue(trie.removeCity(2));
+        assertArrayEquals(new int[] { 0 }, cities(trie, sanJose));
+        //the tail is found again after the old tail was removed
+        trie.addCity(sanJose, 4);
+        assertArrayEquals(new int[] { 0, 4 }, cities(trie, sanJose));
+        assertEquals(0, trie.removeFirstCity(sanJose));
+        assertArrayEquals(new int[] { 4 }, cities(trie, sanJose));
+        assertEquals(2, trie.liveCities(root));
+    }
+
+    @Test
+    public void repeatedRemoveIsIgnored()
+    {
+        assertTrue(trie.removeCity(0));
+        assertFalse(trie.removeCity(0));
+        assertFalse(trie.hasCity(0));
+        assertArrayEquals(new int[] { 1, 2 }, cities(trie, sanJose));
+        assertEquals(3, trie.liveCities(root));
+    }
+
+    @Test
+    public void neverAddedIdIsIgnored()
+    {
+        assertFalse(trie.hasCity(5));
+        assertFalse(trie.removeCity(5));
+        assertFalse(trie.removeCity(2000));
+        assertFalse(trie.removeCity(-1));
+        assertArrayEquals(new int[] { 0, 1, 2 }, cities(trie, sanJose));
+        assertArrayEquals(new int[] { 3 }, cities(trie, paris));
+        assertEquals(4, trie.liveCities(root));
+    }
+
+    @Test
+    public void cityIdsGrowBeyondTheFirstArray()
+    {
+        trie.addCity(paris, 5000);
+        assertTrue(trie.hasCity(5000));
+        assertFalse(trie.hasCity(4999));
+        assertFalse(trie.removeCity(4999));
+        assertArrayEquals(new int[] { 3, 5000 }, cities(trie, paris));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addingACityTwiceFails()
+    {
+        trie.addCity(paris, 1);
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException
+    {
+        trie.removeCity(1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            trie.writeSnapshot(out, 4);
+        }
+        CityTrie read = CityTrie.readSnapshot(ByteBuffer.wrap(bytes.toByteArray()), trie.getNormalizer());
+
+        assertArrayEquals(new int[] { 0, 2 }, cities(read, sanJose));
+        assertArrayEquals(new int[] { 3 }, cities(read, paris));
+        assertEquals(3, read.liveCities(root));
+        assertFalse(read.hasCity(1));
+        //the back links and nodes are rebuilt, so removing by id works on the copy
+        assertTrue(read.removeCity(2));
+        assertFalse(read.removeCity(2));
+        assertArrayEquals(new int[] { 0 }, cities(read, sanJose));
+        read.addCity(sanJose, 6);
+        assertArrayEquals(new int[] { 0, 6 }, cities(read, sanJose));
+        assertEquals(3, read.liveCities(root));
+    }
+}
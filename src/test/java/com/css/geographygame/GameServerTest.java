@@ -0,0 +1,262 @@
+package com.css.geographygame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * <h1>Game Server Test</h1>
+ * Talks HTTP to a {@link GameServer} on a free port over a raw socket, so
+ * requests can be pipelined, split over several reads or malformed on
+ * purpose: responses come back in order with the right status, oversized
+ * and chunked requests are refused and close the connection, and HTTP/1.0
+ * connections are kept alive only when asked to.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class GameServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GameServer server;
+    private int port;
+
+    private static class Response
+    {
+        int status;
+        Map<String, String> headers = new HashMap<>();
+        String body;
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File csv = folder.newFile("cities.csv");
+        Files.write(csv.toPath(), Arrays.asList("name,country,subcountry,geonameid",
+                "Paris,France,Ile-de-France,1", "Sydney,Australia,New South Wales,2", "Seoul,South Korea,Seoul,3",
+                "York,United Kingdom,England,4", "Oslo,Norway,Oslo,5", "London,United Kingdom,England,6"),
+                StandardCharsets.UTF_8);
+        server = new GameServer(CityIndex.fromCsv(csv.getPath()), null, 1);
+        port = server.start(0);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        server.close();
+    }
+
+    private Socket connect() throws IOException
+    {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static String request(String method, String target, String version, String body)
+    {
+        return method + " " + target + " " + version + "\r\nHost: localhost\r\nContent-Length: "
+                + body.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + body;
+    }
+
+    private static void send(Socket socket, String request) throws IOException
+    {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n')
+        {
+            if (b == -1)
+                return line.size() == 0 ? null : line.toString("ISO-8859-1");
+            if (b != '\r')
+                line.write(b);
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+    //reads one response, null if the server closed the connection instead
+    private static Response read(Socket socket) throws IOException
+    {
+        InputStream in = socket.getInputStream();
+        String statusLine = readLine(in);
+        if (statusLine == null)
+            return null;
+        Response response = new Response();
+        response.status = Integer.parseInt(statusLine.split(" ")[1]);
+        String line;
+        while (!(line = readLine(in)).isEmpty())
+        {
+            int colon = line.indexOf(':');
+            response.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        byte[] body = new byte[Integer.parseInt(response.headers.getOrDefault("content-length", "0"))];
+        for (int n = 0; n < body.length; )
+        {
+            int read = in.read(body, n, body.length - n);
+            assertTrue("body cut short", read > 0);
+            n += read;
+        }
+        response.body = new String(body, StandardCharsets.UTF_8);
+        return response;
+    }
+
+    @Test
+    public void playsAGameOnOneConnection() throws IOException
+    {
+        try (Socket socket = connect()) {
+            send(socket, request("POST", "/sessions", "HTTP/1.1", ""));
+            Response created = read(socket);
+            assertEquals(201, created.status);
+            assertEquals("1", created.body);
+
+            send(socket, request("POST", "/sessions/1/move", "HTTP/1.1", "Paris"));
+            Response move = read(socket);
+            assertEquals(200, move.status);
+            assertTrue(move.body, move.body.startsWith("s"));
+            assertNull(move.headers.get("connection"));
+
+            send(socket, request("DELETE", "/sessions/1", "HTTP/1.1", ""));
+            assertEquals(204, read(socket).status);
+            assertEquals(0, server.getNbrOfSessions());
+        }
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrder() throws IOException
+    {
+        try (Socket socket = connect()) {
+            //three requests in one write, the server reads them in one go
+            send(socket, request("POST", "/sessions", "HTTP/1.1", "")
+                    + request("GET", "/sessions", "HTTP/1.1", "")
+                    + request("POST", "/sessions/1/move", "HTTP/1.1", "Paris"));
+            Response created = read(socket);
+            assertEquals(201, created.status);
+            assertEquals("1", created.body);
+            assertEquals(405, read(socket).status);
+            Response move = read(socket);
+            assertEquals(200, move.status);
+            assertTrue(move.body, move.body.startsWith("s"));
+
+            send(socket, request("POST", "/sessions/7/move", "HTTP/1.1", "Oslo")
+                    + request("POST", "/sessions", "HTTP/1.1", ""));
+            assertEquals(404, read(socket).status);
+            assertEquals("2", read(socket).body);
+        }
+    }
+
+    @Test
+    public void splitRequestIsAnsweredOnceWhole() throws IOException, InterruptedException
+    {
+        try (Socket socket = connect()) {
+            send(socket, request("POST", "/sessions", "HTTP/1.1", ""));
+            assertEquals(201, read(socket).status);
+
+            //header, end of header and body in separate reads, the last one starts the next request
+            String move = request("POST", "/sessions/1/move", "HTTP/1.1", "Paris");
+            String[] parts = { move.substring(0, 10), move.substring(10, move.length() - 7),
+                    move.substring(move.length() - 7, move.length() - 3), move.substring(move.length() - 3) + "GET /met" };
+            for (String part : parts)
+            {
+                send(socket, part);
+                Thread.sleep(50);
+            }
+            send(socket, "rics HTTP/1.1\r\n\r\n");
+            Response response = read(socket);
+            assertEquals(200, response.status);
+            assertTrue(response.body, response.body.startsWith("s"));
+            Response metrics = read(socket);
+            assertEquals(200, metrics.status);
+            assertTrue(metrics.body, metrics.body.contains("sessions=1"));
+        }
+    }
+
+    @Test
+    public void largeHeaderIsRefusedWith431() throws IOException
+    {
+        try (Socket socket = connect()) {
+            //exactly the limit without the end of the header, so the server reads all of it
+            StringBuilder header = new StringBuilder("GET /metrics HTTP/1.1\r\nX-Padding: ");
+            while (header.length() < 8192)
+                header.append('0');
+            send(socket, header.toString());
+            Response response = read(socket);
+            assertEquals(431, response.status);
+            assertEquals("close", response.headers.get("connection"));
+            assertNull(read(socket));
+        }
+    }
+
+    @Test
+    public void largeBodyIsRefusedWith413() throws IOException
+    {
+        try (Socket socket = connect()) {
+            send(socket, "POST /sessions HTTP/1.1\r\nContent-Length: 70000\r\n\r\n");
+            Response response = read(socket);
+            assertEquals(413, response.status);
+            assertEquals("close", response.headers.get("connection"));
+            assertNull(read(socket));
+        }
+    }
+
+    @Test
+    public void chunkedBodyIsRefusedWith501() throws IOException
+    {
+        try (Socket socket = connect()) {
+            //the request before it is still answered
+            send(socket, request("POST", "/sessions", "HTTP/1.1", "")
+                    + "POST /sessions HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n");
+            assertEquals(201, read(socket).status);
+            Response response = read(socket);
+            assertEquals(501, response.status);
+            assertEquals("close", response.headers.get("connection"));
+            assertNull(read(socket));
+            assertEquals(1, server.getNbrOfSessions());
+        }
+    }
+
+    @Test
+    public void http10KeepsAliveOnlyWhenAsked() throws IOException
+    {
+        try (Socket socket = connect()) {
+            send(socket, "POST /sessions HTTP/1.0\r\nConnection: keep-alive\r\nContent-Length: 0\r\n\r\n");
+            Response first = read(socket);
+            assertEquals(201, first.status);
+            assertEquals("keep-alive", first.headers.get("connection"));
+
+            send(socket, "POST /sessions/1/move HTTP/1.0\r\nContent-Length: 4\r\n\r\nOslo");
+            Response second = read(socket);
+            assertEquals(200, second.status);
+            assertEquals("close", second.headers.get("connection"));
+            assertNull(read(socket));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * <h1>Move Journal Test</h1>
+ * Writes a {@link MoveJournal} and reads it back, closed and while it is
+ * still open as after a crash.  A truncated journal, one with a damaged
+ * header and one written for a different cities file are refused with an
+ * IOException, and {@link GameReplay} skips the latter and checks the moves
+ * of the others.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class MoveJournalTest {
+
+    private static final List<String> CITIES = Arrays.asList("Paris", "Sydney", "Seoul", "York", "Oslo",
+            "London", "Nairobi", "Istanbul", "Lima", "Athens");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CityIndex index;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        index = CityIndex.fromCsv(csv("cities.csv", CITIES));
+        journalFile = new File(folder.getRoot(), "game" + MoveJournal.SUFFIX);
+    }
+
+    private String csv(String fileName, List<String> cities) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("name,country,subcountry,geonameid");
+        for (int i = 0; i < cities.size(); i++)
+            lines.add(cities.get(i) + ",Country,Region," + (i + 1));
+        File file = folder.newFile(fileName);
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    private void writeGame(int[] moves, String result) throws IOException
+    {
+        MoveJournal journal = new MoveJournal(journalFile, index);
+        for (int id : moves)
+            journal.append(id);
+        journal.close(result);
+    }
+
+    private int id(String city)
+    {
+        for (int id = 0; id < index.getNames().size(); id++)
+            if (index.getNames().name(id).equalsIgnoreCase(city))
+                return id;
+        throw new IllegalArgumentException(city);
+    }
+
+    private void assertRefused(CityIndex readIndex)
+    {
+        try {
+            MoveJournal.read(journalFile.getPath(), readIndex);
+            fail("read() accepted " + journalFile);
+        } catch (IOException e)
+        {
+            //expected
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException
+    {
+        int[] moves = { 0, 1, 9, 4, 5 };
+        writeGame(moves, "Player1 wins. Player2 has run out of cities.");
+        MoveJournal.Game game = MoveJournal.read(journalFile.getPath(), index);
+        assertArrayEquals(moves, game.moves);
+        assertEquals(moves.length, game.deltaMillis.length);
+        assertEquals("Player1 wins. Player2 has run out of cities.", game.result);
+    }
+
+    @Test
+    public void unclosedJournalReadsUpToTheLastMove() throws IOException
+    {
+        MoveJournal journal = new MoveJournal(journalFile, index);
+        journal.append(3);
+        journal.append(7);
+        //the moves are in the file before close(), like when the controller is killed
+        MoveJournal.Game game = MoveJournal.read(journalFile.getPath(), index);
+        assertArrayEquals(new int[] { 3, 7 }, game.moves);
+        assertEquals("", game.result);
+        journal.close("");
+    }
+
+    @Test
+    public void truncatedJournalIsRefused() throws IOException
+    {
+        writeGame(new int[] { 0, 1, 2 }, "Player2 wins.");
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            //inside the result
+            file.setLength(file.length() - 3);
+        }
+        assertRefused(index);
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            //inside the header
+            file.setLength(20);
+        }
+        assertRefused(index);
+    }
+
+    @Test
+    public void damagedHeaderIsRefused() throws IOException
+    {
+        writeGame(new int[] { 0, 1, 2 }, "Player2 wins.");
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.writeInt(0);
+        }
+        assertRefused(index);
+    }
+
+    @Test
+    public void journalOfOtherCitiesIsRefused() throws IOException
+    {
+        writeGame(new int[] { 0, 1, 2 }, "Player2 wins.");
+        List<String> others = new ArrayList<>(CITIES);
+        others.set(0, "Ankara");
+        assertRefused(CityIndex.fromCsv(csv("others.csv", others)));
+        assertRefused(CityIndex.fromCsv(csv("fewer.csv", CITIES.subList(0, 5))));
+    }
+
+    @Test
+    public void replayChecksTheMovesOfTheJournals() throws IOException
+    {
+        File dir = folder.newFolder("journals");
+        journalFile = new File(dir, "1" + MoveJournal.SUFFIX);
+        writeGame(new int[] { id("Paris"), id("Seoul"), id("London"), id("Nairobi"), id("Istanbul"), id("Lima"),
+                id("Athens"), id("Sydney") }, "Player1 wins.");
+        //Paris is played twice
+        journalFile = new File(dir, "2" + MoveJournal.SUFFIX);
+        writeGame(new int[] { id("Paris"), id("Seoul"), id("Paris") }, "Player2 wins.");
+        //written with other cities, skipped by load()
+        CityIndex others = CityIndex.fromCsv(csv("others.csv", CITIES.subList(0, 5)));
+        new MoveJournal(new File(dir, "3" + MoveJournal.SUFFIX), others).close("");
+
+        GameReplay replay = new GameReplay(index);
+        assertEquals(2, replay.load(dir.getPath()));
+        replay.replayController();
+        assertEquals(11, replay.moves);
+        assertEquals(1, replay.rejected);
+    }
+}
@@ -0,0 +1,113 @@
+package com.css.geographygame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * <h1>Opening Book Test</h1>
+ * Saves an {@link OpeningBook} and maps it back: every position finds its
+ * move and the others find none.  A truncated book, one with a damaged
+ * header and one built for a different cities file are not loaded.
+ *
+ * @author  Craig Schwegel
+ * @version 1.0
+ * @since   2019-09-18
+ */
+public class OpeningBookTest {
+
+    private static final List<String> CITIES = Arrays.asList("Paris", "Sydney", "Seoul", "York", "Oslo",
+            "London", "Nairobi", "Istanbul", "Lima", "Athens");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CityIndex index;
+    private String bookFile;
+    private Map<Long, Integer> moves;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        index = CityIndex.fromCsv(csv("cities.csv", CITIES));
+        bookFile = new File(folder.getRoot(), "cities.book").getPath();
+        //a move for the position after every first city
+        moves = new HashMap<>();
+        for (int id = 0; id < index.getNames().size(); id++)
+        {
+            GameSession session = index.newSession();
+            session.removeCity(id);
+            moves.put(session.positionKey(index.nameLast(id)), (id + 1) % index.getNames().size());
+        }
+        OpeningBook.save(bookFile, index, 2, moves);
+    }
+
+    private String csv(String fileName, List<String> cities) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("name,country,subcountry,geonameid");
+        for (int i = 0; i < cities.size(); i++)
+            lines.add(cities.get(i) + ",Country,Region," + (i + 1));
+        File file = folder.newFile(fileName);
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+    @Test
+    public void roundTrip()
+    {
+        OpeningBook book = OpeningBook.load(bookFile, index);
+        assertNotNull(book);
+        assertEquals(2, book.getPlies());
+        assertEquals(moves.size(), book.size());
+        for (Map.Entry<Long, Integer> move : moves.entrySet())
+            assertEquals(move.getValue().intValue(), book.lookup(move.getKey()));
+        assertEquals(-1, book.lookup(OpeningBook.cityKey(0) + OpeningBook.cityKey(1)));
+    }
+
+    @Test
+    public void truncatedBookIsNotLoaded() throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(bookFile, "rw")) {
+            file.setLength(file.length() - 4);
+        }
+        assertNull(OpeningBook.load(bookFile, index));
+    }
+
+    @Test
+    public void damagedHeaderIsNotLoaded() throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(bookFile, "rw")) {
+            file.seek(4);
+            file.writeInt(OpeningBook.VERSION + 1);
+        }
+        assertNull(OpeningBook.load(bookFile, index));
+    }
+
+    @Test
+    public void bookOfOtherCitiesIsNotLoaded() throws IOException
+    {
+        //same number of cities, one name differs
+        List<String> others = new ArrayList<>(CITIES);
+        others.set(others.size() - 1, "Ankara");
+        assertNull(OpeningBook.load(bookFile, CityIndex.fromCsv(csv("others.csv", others))));
+        //fewer cities
+        assertNull(OpeningBook.load(bookFile, CityIndex.fromCsv(csv("fewer.csv", CITIES.subList(0, 5)))));
+    }
+}